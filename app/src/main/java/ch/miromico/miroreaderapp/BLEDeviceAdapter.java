@@ -0,0 +1,347 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Base of the BLE device list adapters, applying list updates incrementally.
+ * <p>
+ * Submitted device lists are first rendered into {@link DeviceRow} on a background thread, rows
+ * of devices without a new observation are reused. The rows are then diffed against the displayed
+ * list on another background thread, only the rows of added, removed or updated devices are
+ * notified. Binding a row only sets its prepared texts. Item ids are the 48-bit MAC addresses, so
+ * rows stay attached to their device while the list changes.
+ * <p>
+ * Only the rows of the loaded pages are rendered, further pages are loaded while scrolling down.
+ */
+public abstract class BLEDeviceAdapter<VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<VH> {
+    protected static final String TAG = "BLEDeviceAdapter";
+
+    /**
+     * Rows are identified by device address, a row is rendered per device observation, so the
+     * contents changed if the row is not the same
+     */
+    protected static final DiffUtil.ItemCallback<DeviceRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<DeviceRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull DeviceRow oldItem, @NonNull DeviceRow newItem) {
+            return oldItem.device.getAddressKey() == newItem.device.getAddressKey();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull DeviceRow oldItem, @NonNull DeviceRow newItem) {
+            return oldItem == newItem;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull DeviceRow oldItem, @NonNull DeviceRow newItem) {
+            // rebind the reception parameters only if the payload is the same
+            if (oldItem.device.getPayloadVersion() == newItem.device.getPayloadVersion()) {
+                return PAYLOAD_SIGNAL;
+            }
+            return PAYLOAD_CONTENT;
+        }
+    };
+
+    /**
+     * Change payload of rows with only new reception parameters, i.e. RSSI and timestamp
+     */
+    protected static final Object PAYLOAD_SIGNAL = new Object();
+    /**
+     * Change payload of rows with a new advertisement payload, rebound completely
+     */
+    protected static final Object PAYLOAD_CONTENT = new Object();
+
+    /**
+     * Thread rendering the rows of all adapters
+     */
+    private static final Executor RENDER_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Number of rows materialized per page
+     */
+    public static final int PAGE_SIZE = 50;
+
+    private final AsyncListDiffer<DeviceRow> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int renderGeneration = 0;
+
+    /**
+     * Latest submitted devices and the number of rows of the loaded pages
+     */
+    private List<BLEDevice> submittedDevices = Collections.emptyList();
+    private int pageLimit = PAGE_SIZE;
+
+    /**
+     * Avatar drawables resolved so far, by name
+     */
+    private final HashMap<String, Integer> avatarResources = new HashMap<>();
+
+    /**
+     * Latencies of binding updated rows, or null
+     */
+    private LatencyStats latencyStats = null;
+
+    /**
+     * Last rendered rows and their index by address, accessed by the render thread only
+     */
+    private List<DeviceRow> renderedRows = Collections.emptyList();
+    private LongIntHashMap renderedIndex = new LongIntHashMap();
+
+    public BLEDeviceAdapter() {
+        setHasStableIds(true);
+    }
+
+    /**
+     * Render the display strings of a device row, called on the render thread
+     *
+     * @param device The device observation
+     * @return The rendered row
+     */
+    protected abstract DeviceRow render(BLEDevice device);
+
+    /**
+     * Update the reception parameters of a bound row, i.e. RSSI and timestamp
+     *
+     * @param holder The view holder showing the row
+     * @param row    The row with the new reception parameters
+     */
+    protected abstract void onBindSignal(VH holder, DeviceRow row);
+
+    @Override
+    public void onBindViewHolder(@NonNull VH holder, int position, @NonNull List<Object> payloads) {
+        // partial bind if all changes since the last bind kept the payload
+        boolean signalOnly = !payloads.isEmpty();
+        for (int i = 0; i < payloads.size() && signalOnly; i++) {
+            signalOnly = payloads.get(i) == PAYLOAD_SIGNAL;
+        }
+
+        if (signalOnly) {
+            onBindSignal(holder, getRow(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+
+        // rows bound with a change payload show a new observation of their device
+        if (latencyStats != null && !payloads.isEmpty()) {
+            latencyStats.record(LatencyStats.STAGE_BIND, getDevice(position).getTimestamp());
+        }
+    }
+
+    /**
+     * Measure the latency until updated rows are bound, must be called from the main thread
+     *
+     * @param stats The latency statistics, or null to disable
+     */
+    public void setLatencyStats(LatencyStats stats) {
+        this.latencyStats = stats;
+    }
+
+    /**
+     * Submit a new device list to display, must be called from the main thread. The rows of the
+     * loaded pages are rendered and diffed in the background, the list must not be modified after
+     * submission, e.g. a device snapshot list.
+     *
+     * @param devices The devices to display, or null to clear the list
+     */
+    public void submitList(List<BLEDevice> devices) {
+        submittedDevices = devices != null ? devices : Collections.<BLEDevice>emptyList();
+        submitPages();
+    }
+
+    /**
+     * Load the next page of rows if the loaded pages are displayed completely, must be called
+     * from the main thread
+     *
+     * @return true if another page is loaded
+     */
+    public boolean loadNextPage() {
+        if (getItemCount() < pageLimit || pageLimit >= submittedDevices.size()) {
+            return false;
+        }
+        pageLimit += PAGE_SIZE;
+        submitPages();
+        return true;
+    }
+
+    /**
+     * Drop all but the first page, e.g. when the order or filter of the list changed
+     */
+    public void resetPages() {
+        pageLimit = PAGE_SIZE;
+        submitPages();
+    }
+
+    public int getPageLimit() {
+        return pageLimit;
+    }
+
+    private void submitPages() {
+        final List<BLEDevice> devices = submittedDevices.subList(0, Math.min(pageLimit, submittedDevices.size()));
+        final int generation = ++renderGeneration;
+        RENDER_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<DeviceRow> rows = renderRows(devices);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // drop outdated lists submitted meanwhile
+                        if (generation == renderGeneration) {
+                            differ.submitList(rows);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get the rows currently displayed
+     *
+     * @return Unmodifiable list of the rows
+     */
+    public List<DeviceRow> getCurrentList() {
+        return differ.getCurrentList();
+    }
+
+    protected DeviceRow getRow(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    protected BLEDevice getDevice(int position) {
+        return getRow(position).device;
+    }
+
+    /**
+     * The address key is a stable id, rows without valid address are never shown
+     */
+    @Override
+    public long getItemId(int position) {
+        return getDevice(position).getAddressKey();
+    }
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    private List<DeviceRow> renderRows(List<BLEDevice> devices) {
+        ArrayList<DeviceRow> rows = new ArrayList<>(devices.size());
+        LongIntHashMap index = new LongIntHashMap(devices.size());
+        for (int i = 0; i < devices.size(); i++) {
+            BLEDevice device = devices.get(i);
+            long key = device.getAddressKey();
+            // the invalid key equals NO_ID, the device log does not list such devices anyway
+            if (key == MacAddress.INVALID) {
+                continue;
+            }
+
+            // reuse the row if the device was not observed again, or its payload texts if only
+            // the reception parameters changed
+            int previous = renderedIndex.get(key);
+            DeviceRow last = previous != LongIntHashMap.MISSING ? renderedRows.get(previous) : null;
+            DeviceRow row;
+            if (last != null && last.device == device) {
+                row = last;
+            } else if (last != null && last.device.getPayloadVersion() == device.getPayloadVersion()) {
+                row = DeviceRowRenderer.renderSignal(last, device);
+            } else {
+                row = render(device);
+            }
+            index.put(key, rows.size());
+            rows.add(row);
+        }
+        renderedRows = rows;
+        renderedIndex = index;
+        return rows;
+    }
+
+    /**
+     * Get the drawable of a row avatar, resolved by name once per avatar
+     *
+     * @param context The context of the views
+     * @param avatar  The name of the avatar drawable, see {@link DeviceRow}
+     * @return The drawable resource id
+     */
+    protected int avatarResource(Context context, String avatar) {
+        if (avatar == null) {
+            return R.drawable.profile_default;
+        }
+        Integer resource = avatarResources.get(avatar);
+        if (resource == null) {
+            resource = context.getResources().getIdentifier(avatar, "drawable", context.getPackageName());
+            if (resource == 0) {
+                Log.w(TAG, "unknown avatar: " + avatar);
+                resource = R.drawable.profile_default;
+            }
+            avatarResources.put(avatar, resource);
+        }
+        return resource;
+    }
+}
@@ -61,27 +61,11 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.List;
-
 import ch.miromico.miroreaderapp.R;
 
-public class BLEDeviceAdapterDecoded extends RecyclerView.Adapter<BLEDeviceAdapterDecoded.ViewHolder> {
+public class BLEDeviceAdapterDecoded extends BLEDeviceAdapter<BLEDeviceAdapterDecoded.ViewHolder> {
     protected static final String TAG = "BLEDeviceAdapterDecoded";
 
-    public static final int ALL     = 0xFF;
-    public static final int TEMP_RH = 0x01;
-    public static final int LIGHT   = 0x02;
-    public static final int ACC     = 0x04;
-
-    /**
-     * List of Bluetooth Low Energy devices
-     */
-    protected List<BLEDevice> devicesList;
-
-    public BLEDeviceAdapterDecoded(List<BLEDevice> devices) {
-        this.devicesList = devices;
-    }
-
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
@@ -91,160 +75,45 @@ public class BLEDeviceAdapterDecoded extends RecyclerView.Adapter<BLEDeviceAdapt
     }
 
     /**
-     * This function updates the UI with data from the latest received packet
+     * Render the data of the latest received packet. The packet data is decoded at reception, see
+     * {@link MiroCardDecoder}, rendering only formats the decoded sample.
+     */
+    @Override
+    protected DeviceRow render(BLEDevice device) {
+        return DeviceRowRenderer.renderDecoded(device);
+    }
+
+    /**
+     * This function updates the UI with the rendered row of the latest received packet.
      * @param holder
      * @param position
      */
-
     @Override
     public void onBindViewHolder(ViewHolder holder, int position) {
-        BLEDevice device = devicesList.get(position);
-
-        String address = device.getAddress();
-        byte[] data = device.getDataRaw();
-
-        String name = device.getName();
-
-        //Update text labels based on packet data
-        if (address != null) {
-            holder.address.setText(address);
-        } else {
-            holder.address.setText("{no addr}");
-        }
-        if (data == null) {
-            holder.temperature.setText("N/A");
-            holder.humidity.setText("N/A");
-            holder.time.setText("N/A");
-        } else if (data.length > 5) {
-            //Assume there is parseable data
-            Log.d(TAG, data.toString());
-            char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
-            char[] hexChars = new char[data.length * 2];
-            for (int j = 0; j < data.length; j++) {
-                int v = data[j] & 0xFF;
-                hexChars[j * 2] = HEX_ARRAY[v >>> 4];
-                hexChars[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
-            }
-            Log.d(TAG, new String(hexChars));
-
-            int timestamp_raw = ((data[0] & 0xFF) | ((data[1] & 0xFF) << 8)
-                                | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 24));
-
-            String message = "Found timestamp 0x" + String.format("%08x", timestamp_raw);
-            Log.d(TAG, message);
-
-            //This is a special key used in the MiroCard prototypes
-            if(timestamp_raw == 0xFDFCFBFA) {
-                //Hard coded mac address for Andres' card
-                if ("18:04:ED:61:66:3D".equalsIgnoreCase(address.trim()) || "18:04:ED:61:66:51".equalsIgnoreCase(address.trim()) || "18:04:ED:61:67:6C".equalsIgnoreCase(address.trim())) {
-                    //Update UI with hardcoded data
-                    name = "Andres' MiroCard";
-                    holder.temperature.setText("");
-                    holder.humidity.setText("");
-                    holder.luminosity.setText("");
-                    holder.accX.setText("Member");
-                    holder.accY.setText("since:");
-                    holder.accZ.setText("13.08.2020");
-                    holder.time.setText("Platinum Member");
-
-                    holder.avatar.setImageResource(R.drawable.profile_ag);
-                }
-                //Hard coded value for Kevin's card
-                else if ( "18:04:ED:61:67:2B".equalsIgnoreCase(address.trim()) || "18:04:ED:61:67:0C".equalsIgnoreCase(address.trim())) {
-                    //Update UI with hardcoded data
-                    name = "Kevin's MiroCard";
-                    holder.temperature.setText("");
-                    holder.humidity.setText("");
-                    holder.luminosity.setText("");
-                    holder.accX.setText("Member");
-                    holder.accY.setText("since:");
-                    holder.accZ.setText("13.08.2020");
-                    holder.time.setText("Gold Member");
-
-                    holder.avatar.setImageResource(R.drawable.profile_kl);
-                } else {
-                    holder.avatar.setImageResource(R.drawable.profile_default);
-                }
-            }
-            //If timestamp is not a MiroCard Sensor, then assume it is a Transient BLE Sensor V2
-            else if(timestamp_raw != 0xABABABAB) {
-                //Update UI with sensor values
-                name = "Meeting Room";
-                //OLD DATA FORMAT
-                int humidity_raw = (data[4] & 0xFF) | (((int) data[5] & 0x03) << 8);
-                int temperature_raw = ((data[5] & 0xFC) >> 2) | ((data[6] & 0xFF) << 6);
-
-                // conversion
-                float temperature = -40.0f + (float) temperature_raw / 100.0f;
-                float humidity = (float) humidity_raw / 10.0f;
-
-                holder.temperature.setText(String.format("%+7.2f °C", temperature));
-                holder.luminosity.setText("");
-                holder.humidity.setText(String.format("%5.1f %%RH", humidity));
-                holder.accX.setText("");
-                holder.accY.setText("");
-                holder.accZ.setText("");
-                holder.time.setText(String.format("%08x", timestamp_raw));
-                holder.avatar.setImageResource(R.drawable.profile_default);
-            }
-            //Miromico sensors should have the following timestamp: 0xABABABAB
-            else {
-                //Update UI values with sensor data
-                name = "MiroCard";
-                //NEW DATA FORMAT
-                int messageType = (data[4] & 0xFF);
-
-                // decode and convert data
-                if ((messageType & TEMP_RH) == TEMP_RH) {
-                    int humidity_raw = (data[5] & 0xFF) | (((int) data[6] & 0x03) << 8);
-                    int temperature_raw = ((data[6] & 0xFC) >> 2) | ((data[7] & 0xFF) << 6);
-                    float temperature = -40.0f + (float) temperature_raw / 100.0f;
-                    float humidity = (float) humidity_raw / 10.0f;
-                    holder.temperature.setText(String.format("%+7.2f °C", temperature));
-                    holder.humidity.setText(String.format("%5.1f %%RH", humidity));
-                }
-                if ((messageType & LIGHT) == LIGHT) {
-                    int light_raw = (data[8] & 0xFF) | ((data[9] & 0xFF) << 8);
-                    float light = (float) light_raw / 10;
-                    holder.luminosity.setText(String.format("%.1f lx", light));
-                }
-                if ((messageType & ACC) == ACC) {
-                    int accX_raw = (data[10] & 0xFF) | ((data[11] & 0x03) << 8);
-                    int accY_raw = ((data[11] & 0xFF) >> 2) | ((data[12] & 0xF0) << 2);
-                    int accZ_raw = ((data[12] & 0x0F)) | ((data[13] & 0xFF) << 4);
-                    float accX = -2.0f + (float) (accX_raw) / 100.0f;
-                    float accY = -2.0f + (float) (accY_raw) / 100.0f;
-                    float accZ = -2.0f + (float) (accZ_raw) / 100.0f;
-                    holder.accX.setText(String.format("X:%.2f g", accX));
-                    holder.accY.setText(String.format("Y:%.2f g", accY));
-                    holder.accZ.setText(String.format("Z:%.2f g", accZ));
-                }
-
-                holder.avatar.setImageResource(R.drawable.profile_default);
-                holder.time.setText(String.format("%08x", timestamp_raw));
-            }
-        } else {
-            holder.temperature.setText("err");
-            holder.humidity.setText("err");
-            holder.luminosity.setText("err");
-            holder.accX.setText("err");
-            holder.accY.setText("err");
-            holder.accZ.setText("err");
-            holder.time.setText("err");
-        }
-
-        if (name != null) {
-            holder.name.setText(name);
-        } else {
-            holder.name.setText("{no name}");
+        DeviceRow row = getRow(position);
+
+        holder.name.setText(row.name);
+        holder.address.setText(row.address);
+        holder.temperature.setText(row.temperature);
+        holder.humidity.setText(row.humidity);
+        holder.luminosity.setText(row.luminosity);
+        holder.accX.setText(row.accX);
+        holder.accY.setText(row.accY);
+        holder.accZ.setText(row.accZ);
+        holder.time.setText(row.time);
+        holder.rssi.setText(row.rssi);
+        holder.timestamp.setText(row.timestamp);
+        int avatar = avatarResource(holder.itemView.getContext(), row.avatar);
+        if (holder.avatarShown != avatar) {
+            holder.avatar.setImageResource(avatar);
+            holder.avatarShown = avatar;
         }
-        holder.rssi.setText(String.format("%d", device.getRssi()));
-        holder.timestamp.setText(String.format("%d", device.getTimestamp()));
     }
 
     @Override
-    public int getItemCount() {
-        return devicesList.size();
+    protected void onBindSignal(ViewHolder holder, DeviceRow row) {
+        holder.rssi.setText(row.rssi);
+        holder.timestamp.setText(row.timestamp);
     }
 
     /**
@@ -253,6 +122,10 @@ public class BLEDeviceAdapterDecoded extends RecyclerView.Adapter<BLEDeviceAdapt
     public static class ViewHolder extends RecyclerView.ViewHolder {
         public TextView name, address, temperature, humidity, luminosity, accX, accY, accZ, time, rssi, timestamp;
         public ImageView avatar;
+        /**
+         * Drawable resource of the avatar currently shown
+         */
+        public int avatarShown = 0;
 
         public ViewHolder(View view) {
             super(view);
@@ -61,22 +61,11 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import android.widget.ImageView;
 
-import java.util.List;
-
 import ch.miromico.miroreaderapp.R;
 
-public class BLEDeviceAdapterRaw extends RecyclerView.Adapter<BLEDeviceAdapterRaw.ViewHolder> {
+public class BLEDeviceAdapterRaw extends BLEDeviceAdapter<BLEDeviceAdapterRaw.ViewHolder> {
     protected static final String TAG = "BLEDeviceAdapterRaw";
 
-    /**
-     * List of Bluetooth Low Energy devices
-     */
-    protected List<BLEDevice> devicesList;
-
-    public BLEDeviceAdapterRaw(List<BLEDevice> devices) {
-        this.devicesList = devices;
-    }
-
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext())
@@ -86,45 +75,30 @@ public class BLEDeviceAdapterRaw extends RecyclerView.Adapter<BLEDeviceAdapterRa
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-        BLEDevice device = devicesList.get(position);
-
-        String address = device.getAddress();
-        String data = device.getData();
-        String name = device.getName();
+    protected DeviceRow render(BLEDevice device) {
+        return DeviceRowRenderer.renderRaw(device);
+    }
 
-        if (address != null) {
-            holder.address.setText(address);
-        } else {
-            holder.address.setText("{no addr}");
-        }
-        if (data != null) {
-            holder.data.setText(data);
-        } else {
-            holder.data.setText("{no data}");
-        }
-        if (name != null) {
-            holder.name.setText(name);
-        } else {
-            holder.name.setText("{no name}");
-        }
-        holder.rssi.setText(String.format("%d", device.getRssi()));
-        holder.timestamp.setText(String.format("%d", device.getTimestamp()));
-
-        if ("18:04:ED:61:66:3D".equalsIgnoreCase(address.trim())) {
-            //name = "Andres Gomez' Miro Card";
-            holder.avatar.setImageResource(R.drawable.profile_ag);
-        } else if ("18:04:ED:61:66:71".equalsIgnoreCase(address.trim())) {
-            //name = "Kevin Luchsinger's Miro Card";
-            holder.avatar.setImageResource(R.drawable.profile_kl);
-        } else {
-            holder.avatar.setImageResource(R.drawable.profile_default);
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        DeviceRow row = getRow(position);
+
+        holder.address.setText(row.address);
+        holder.data.setText(row.data);
+        holder.name.setText(row.name);
+        holder.rssi.setText(row.rssi);
+        holder.timestamp.setText(row.timestamp);
+        int avatar = avatarResource(holder.itemView.getContext(), row.avatar);
+        if (holder.avatarShown != avatar) {
+            holder.avatar.setImageResource(avatar);
+            holder.avatarShown = avatar;
         }
     }
 
     @Override
-    public int getItemCount() {
-        return devicesList.size();
+    protected void onBindSignal(ViewHolder holder, DeviceRow row) {
+        holder.rssi.setText(row.rssi);
+        holder.timestamp.setText(row.timestamp);
     }
 
     /**
@@ -133,6 +107,10 @@ public class BLEDeviceAdapterRaw extends RecyclerView.Adapter<BLEDeviceAdapterRa
     public static class ViewHolder extends RecyclerView.ViewHolder {
         public TextView name, address, data, rssi, timestamp;
         public ImageView avatar;
+        /**
+         * Drawable resource of the avatar currently shown
+         */
+        public int avatarShown = 0;
 
         public ViewHolder(View view) {
             super(view);
@@ -0,0 +1,258 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan source of the live Bluetooth LE scanner, must be started and stopped on the main thread.
+ * <p>
+ * The scan callback runs on the main thread and only hands the raw scan results over to the
+ * delivery thread, which converts them into device observations and calls the listener.
+ */
+public class BleScanSource implements ScanSource {
+    protected static final String TAG = "BleScanSource";
+    /**
+     * Android N max background scan interval of 30 min.
+     * See also: https://github.com/AltBeacon/android-beacon-library/issues/512
+     */
+    protected static final long ANDROID_N_MAX_SCAN_DURATION = 30 * 60 * 1000l;
+
+    /**
+     * Delivery thread message types
+     */
+    private static final int MSG_SCAN_RESULT = 1;
+    private static final int MSG_BATCH_SCAN_RESULTS = 2;
+
+    /**
+     * Bluetooth Low Energy scanner structure
+     */
+    private final BluetoothLeScanner bleScanner;
+    /**
+     * Handler for timed BLE device scan restarts
+     */
+    private final Handler scanRestartHandler = new Handler();
+    /**
+     * Handler converting and delivering the results on the delivery thread
+     */
+    private final Handler deliveryHandler;
+
+    private ScanSettings bleScanSettings;
+    private List<ScanFilter> bleScanFilters = new ArrayList<>();
+
+    /**
+     * Receiver of the results, null while not scanning
+     */
+    private volatile Listener listener = null;
+    /**
+     * Number of timed scan restarts since creation
+     */
+    private volatile int restartCount = 0;
+
+    /**
+     * Bluetooth LE scan callback, hands the raw results over to the delivery thread
+     */
+    private ScanCallback bleScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, final ScanResult result) {
+            super.onScanResult(callbackType, result);
+            deliveryHandler.obtainMessage(MSG_SCAN_RESULT, result).sendToTarget();
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            super.onBatchScanResults(results);
+            deliveryHandler.obtainMessage(MSG_BATCH_SCAN_RESULTS, results).sendToTarget();
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            super.onScanFailed(errorCode);
+            Log.e(TAG, "BLE scan failed: " + errorCode);
+            Listener l = listener;
+            if (l != null) {
+                l.onScanFailed("BLE scan failed: " + errorCode);
+            }
+        }
+    };
+
+    /**
+     * Converts the results into device observations on the delivery thread
+     */
+    private Handler.Callback deliveryCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            Listener l = listener;
+            switch (msg.what) {
+                case MSG_SCAN_RESULT:
+                    if (l != null) {
+                        l.onScanResult(toDevice((ScanResult) msg.obj));
+                    }
+                    return true;
+
+                case MSG_BATCH_SCAN_RESULTS:
+                    if (l != null) {
+                        @SuppressWarnings("unchecked")
+                        List<ScanResult> results = (List<ScanResult>) msg.obj;
+                        ArrayList<BLEDevice> devices = new ArrayList<>(results.size());
+                        for (int i = 0; i < results.size(); i++) {
+                            devices.add(toDevice(results.get(i)));
+                        }
+                        l.onBatchScanResults(devices);
+                    }
+                    return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Bluetooth LE scan restart timeout callback
+     */
+    private Runnable scanRestartTask = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "scanRestartTask()");
+
+            // skip if no BLE scan is running
+            if (listener == null) {
+                Log.i(TAG, "scanRestartTask: no scan running");
+                return;
+            }
+
+            // stop and restart scanning BLE devices
+            bleScanner.stopScan(bleScanCallback);
+            bleScanner.startScan(bleScanFilters, bleScanSettings, bleScanCallback);
+            restartCount++;
+            Log.i(TAG, "restarted BLE device scan...");
+
+            // schedule next restart of BLE scan
+            scanRestartHandler.postDelayed(scanRestartTask, ANDROID_N_MAX_SCAN_DURATION / 2);
+        }
+    };
+
+    /**
+     * Create the scan source
+     *
+     * @param scanner        The Bluetooth LE scanner
+     * @param deliveryLooper Looper of the thread converting and delivering the results
+     */
+    public BleScanSource(BluetoothLeScanner scanner, Looper deliveryLooper) {
+        this.bleScanner = scanner;
+        this.deliveryHandler = new Handler(deliveryLooper, deliveryCallback);
+    }
+
+    /**
+     * Set the scan parameters applied with the next start
+     *
+     * @param settings The scan settings
+     * @param filters  The scan filters, empty to receive all devices
+     */
+    public void setup(ScanSettings settings, List<ScanFilter> filters) {
+        this.bleScanSettings = settings;
+        this.bleScanFilters = new ArrayList<>(filters);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+        bleScanner.startScan(bleScanFilters, bleScanSettings, bleScanCallback);
+        Log.i(TAG, "started BLE device scan...");
+
+        // schedule restart of BLE scan before system scan timeout
+        scanRestartHandler.postDelayed(scanRestartTask, ANDROID_N_MAX_SCAN_DURATION / 2);
+    }
+
+    @Override
+    public void stop() {
+        listener = null;
+        bleScanner.stopScan(bleScanCallback);
+        Log.i(TAG, "stopped BLE device scan...");
+
+        scanRestartHandler.removeCallbacks(scanRestartTask);
+    }
+
+    /**
+     * Get the number of timed scan restarts, can be called from any thread
+     *
+     * @return The number of restarts since creation
+     */
+    public int getRestartCount() {
+        return restartCount;
+    }
+
+    /**
+     * Convert a scan result into a device observation
+     *
+     * @param result The scan result
+     * @return The device observation, time stamped in the {@link System#nanoTime()} time base
+     */
+    private static BLEDevice toDevice(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        long timestamp = System.nanoTime() - SystemClock.elapsedRealtimeNanos() + result.getTimestampNanos();
+        return new BLEDevice(result.getDevice().getName(), result.getDevice().getAddress(),
+                timestamp, result.getRssi(), record != null ? record.getBytes() : null);
+    }
+}
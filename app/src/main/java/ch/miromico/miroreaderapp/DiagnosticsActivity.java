@@ -0,0 +1,198 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.IBinder;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.util.Locale;
+
+/**
+ * Live performance dashboard of the running scan, sampled once per second from the counters of
+ * the {@link ScannerService}.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+    protected static final String TAG = "DiagnosticsActivity";
+    /**
+     * Dashboard update interval [ms]
+     */
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    private final Handler sampleHandler = new Handler();
+    private TextView diagnosticsText;
+
+    private ScannerService scannerService;
+    private boolean scannerServiceBound = false;
+
+    /**
+     * Garbage collector count of the last sample
+     */
+    private long lastGcCount = -1;
+
+    /**
+     * Scanner service connection with callbacks
+     */
+    private ServiceConnection scannerServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
+            ScannerService.LocalBinder binder = (ScannerService.LocalBinder) iBinder;
+            scannerService = binder.getService();
+            scannerServiceBound = true;
+            // the first sample only initializes the counters
+            scannerService.sampleDiagnostics();
+            sampleHandler.postDelayed(sampleTask, SAMPLE_INTERVAL);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            scannerServiceBound = false;
+            sampleHandler.removeCallbacks(sampleTask);
+        }
+    };
+
+    /**
+     * Periodic sampling and display of the diagnostics
+     */
+    private Runnable sampleTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!scannerServiceBound) {
+                return;
+            }
+            diagnosticsText.setText(format(scannerService.sampleDiagnostics()));
+            sampleHandler.postDelayed(sampleTask, SAMPLE_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        diagnosticsText = (TextView) findViewById(R.id.diagnostics_text);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // only bind to a running service, the dashboard does not start scanning
+        Intent intent = new Intent(this, ScannerService.class);
+        bindService(intent, scannerServiceConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        sampleHandler.removeCallbacks(sampleTask);
+        if (scannerServiceBound) {
+            unbindService(scannerServiceConnection);
+            scannerServiceBound = false;
+        }
+    }
+
+    /**
+     * Format a diagnostics sample together with the runtime figures of the app process
+     *
+     * @param sample The diagnostics sample
+     * @return The dashboard text
+     */
+    private String format(DiagnosticsSample sample) {
+        StringBuilder text = new StringBuilder();
+        Locale locale = Locale.US;
+
+        text.append(String.format(locale, "scan:           %s\n", scannerService.getScanStatus()));
+        text.append(String.format(locale, "packets:        %.0f /s\n", sample.packetRate));
+        text.append(String.format(locale, "devices:        %d\n", sample.deviceCount));
+        text.append(String.format(locale, "invalid addr.:  %d\n", sample.invalidAddresses));
+        text.append(String.format(locale, "scan restarts:  %d\n", scannerService.getScanRestartCount()));
+        text.append(String.format(locale, "ingest p50:     %.2f ms\n", sample.ingestLatencyP50 / 1e6));
+        text.append(String.format(locale, "ingest p99:     %.2f ms\n", sample.ingestLatencyP99 / 1e6));
+
+        text.append("\nlog writer\n");
+        text.append(String.format(locale, "queue depth:    %d\n", sample.logQueueDepth));
+        text.append(String.format(locale, "written:        %.1f kB/s\n", sample.logBytesRate / 1024));
+        text.append(String.format(locale, "dropped rows:   %d\n", sample.logDroppedRows));
+
+        // runtime statistics of the ART garbage collector and the Java heap
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        long gcCount = parseStat(Debug.getRuntimeStat("art.gc.gc-count"));
+        text.append("\nruntime\n");
+        text.append(String.format(locale, "heap:           %.1f / %.1f MB\n",
+                heapUsed / 1048576.0, runtime.maxMemory() / 1048576.0));
+        text.append(String.format(locale, "gc count:       %d (+%d)\n", gcCount,
+                lastGcCount >= 0 ? gcCount - lastGcCount : 0));
+        lastGcCount = gcCount;
+
+        text.append("\npackets per device\n");
+        for (int i = 0; i < sample.topDevices.length; i++) {
+            text.append(String.format(locale, "%s  %.1f /s\n", sample.topDevices[i],
+                    sample.topDeviceRates[i]));
+        }
+        return text.toString();
+    }
+
+    private static long parseStat(String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -67,13 +67,13 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 
 import android.util.Log;
@@ -83,6 +83,7 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.Spinner;
+import android.widget.Toast;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -107,6 +108,10 @@ public class MainActivity extends AppCompatActivity {
      * Callback callee identifiers for permission requests
      */
     private static final int INTENT_REQUEST_BLUETOOTH_ENABLE = 1;
+    /**
+     * Name of the log replayed instead of scanning, placed in the application directory
+     */
+    private static final String REPLAY_FILE_NAME = "replay";
     /**
      * Application preferences
      */
@@ -121,79 +126,38 @@ public class MainActivity extends AppCompatActivity {
     private ScannerService scannerService;
     private boolean scannerServiceBound = false;
     /**
-     * Handler for timed UI updates
+     * BLE device recycler view
      */
-    private Handler updateHandler;
+    private RecyclerView recyclerView;
     /**
-     * BLE decives list for recycler view
+     * BLE device list adapter
      */
-    private ArrayList<BLEDevice> deviceList;
+    private BLEDeviceAdapter<?> deviceAdapter;
     /**
-     * BLE device recycler view
+     * Display order and filter of the device list
      */
-    private RecyclerView recyclerView;
+    private String deviceOrder = SortedDeviceIndex.ORDER_INSERTION;
+    private String deviceFilter = "";
     /**
-     * BLE device list adapter
+     * Applies device list changes pushed by the scanner service
      */
-    private RecyclerView.Adapter deviceAdapter;
+    private ScannerService.DeviceListListener deviceListListener = new ScannerService.DeviceListListener() {
+        @Override
+        public void onDeviceListChanged(DeviceSnapshot snapshot, int added, int updated, int removed) {
+            // diffed in the background, only changed rows are updated
+            deviceAdapter.submitList(snapshot.getDevices());
+        }
+    };
     /**
-     * UI updater runnable
+     * Updates the UI when the scan stops without user interaction
      */
-    private Runnable listUpdateTask = new Runnable() {
+    private ScannerService.ScanStateListener scanStateListener = new ScannerService.ScanStateListener() {
         @Override
-        public void run() {
-            if (!scannerServiceBound) {
-                return;
-            }
-
-            // get device max age to display
-            String defaultMaxAge = getResources().getString(R.string.pref_ui_max_age_default);
-            int maxAge = Integer.parseInt(preferences.getString("pref_ui_max_age", defaultMaxAge));
-
-            // update existing device list entries device list
-            ArrayList<BLEDevice> newDeviceList = new ArrayList<BLEDevice>(scannerService.getActiveDeviceList());
-
-            int i = deviceList.size() - 1;
-            while (i >= 0) {
-                BLEDevice device = deviceList.get(i);
-
-                // check for existence and replacement
-                int j = newDeviceList.size() - 1;
-                while (j >= 0) {
-                    BLEDevice newDevice = newDeviceList.get(j);
-                    if (newDevice.getAddress() == device.getAddress()) {
-                        if (newDevice.getTimestamp() > device.getTimestamp()) {
-                            deviceList.set(i, new BLEDevice(newDevice));
-                        }
-                        newDeviceList.remove(j);
-                        break;
-                    }
-
-                    // iterate
-                    j = j - 1;
-                }
-
-                // check for removal
-                if (j < 0) {
-                    deviceList.remove(i);
-                }
-
-                // iterate
-                i = i - 1;
-            }
-
-            // add remaining (i.e. new) devices
-            deviceList.addAll(newDeviceList);
-
-            // update list
-            deviceAdapter.notifyDataSetChanged();
-
-            // schedule next update if running scan
-            if (scannerService.getScanStatus() != ScannerService.ScanType.SCAN_IDLE) {
-                String defaultUpdateRate = getResources().getString(R.string.pref_ui_update_interval_default);
-                int updateInterval = Integer.parseInt(preferences.getString("pref_ui_update_interval", defaultUpdateRate));
-                updateHandler.postDelayed(listUpdateTask, updateInterval);
+        public void onScanStopped(String error) {
+            if (error != null) {
+                Toast.makeText(MainActivity.this, error, Toast.LENGTH_LONG).show();
             }
+            updateUiState();
         }
     };
     /**
@@ -206,6 +170,7 @@ public class MainActivity extends AppCompatActivity {
             ScannerService.LocalBinder binder = (ScannerService.LocalBinder) iBinder;
             scannerService = binder.getService();
             scannerServiceBound = true;
+            scannerService.setScanStateListener(scanStateListener);
             updateUiState();
         }
 
@@ -259,16 +224,22 @@ public class MainActivity extends AppCompatActivity {
         RecyclerView.LayoutManager mLayoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(mLayoutManager);
 
-        // init list update handler
-        updateHandler = new Handler();
+        // load further pages of the device list while scrolling down
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView view, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) view.getLayoutManager();
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= deviceAdapter.getItemCount() - BLEDeviceAdapter.PAGE_SIZE / 2) {
+                    deviceAdapter.loadNextPage();
+                }
+            }
+        });
     }
 
     @Override
     protected void onResume() {
         super.onResume();
 
-        // initialize device list
-        deviceList = new ArrayList<>();
 
         // check which adapter to use
         boolean defaultDecodeData = getResources().getBoolean(R.bool.pref_ui_decode_data_default);
@@ -276,9 +247,9 @@ public class MainActivity extends AppCompatActivity {
 
         // setup list adapter
         if (decodeData) {
-            deviceAdapter = new BLEDeviceAdapterDecoded(deviceList);
+            deviceAdapter = new BLEDeviceAdapterDecoded();
         } else {
-            deviceAdapter = new BLEDeviceAdapterRaw(deviceList);
+            deviceAdapter = new BLEDeviceAdapterRaw();
         }
         recyclerView.setAdapter(deviceAdapter);
 
@@ -292,6 +263,8 @@ public class MainActivity extends AppCompatActivity {
 
         // unbind service before closing app
         if (scannerServiceBound) {
+            scannerService.removeDeviceListListener(deviceListListener);
+            scannerService.setScanStateListener(null);
             unbindService(scannerServiceConnection);
             // stop service if no scan running (otherwise continue in background)
             if (scannerService.getScanStatus() == ScannerService.ScanType.SCAN_IDLE) {
@@ -313,6 +286,22 @@ public class MainActivity extends AppCompatActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        // filter the device list while typing
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_filter).getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                deviceFilter = text;
+                updateDeviceView();
+                return true;
+            }
+        });
         return true;
     }
 
@@ -329,6 +318,10 @@ public class MainActivity extends AppCompatActivity {
                 Intent setting_intent = new Intent(this, SettingsActivity.class);
                 startActivity(setting_intent);
                 return true;
+            case R.id.action_diagnostics:
+                Intent diagnostics_intent = new Intent(this, DiagnosticsActivity.class);
+                startActivity(diagnostics_intent);
+                return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -531,9 +524,19 @@ public class MainActivity extends AppCompatActivity {
     public void toggleBleScan(View view) {
         ScannerService.ScanType scanStatus = scannerService.getScanStatus();
         if (scanStatus == ScannerService.ScanType.SCAN_IDLE) {
-            setupScan("ble.csv");
-            scannerService.startScan(ScannerService.ScanType.SCAN_BLE_DEVICE);
-        } else if (scanStatus == ScannerService.ScanType.SCAN_BLE_DEVICE) {
+            if (setupSyntheticLoad()) {
+                setupScan("synthetic");
+                scannerService.startScan(ScannerService.ScanType.SCAN_SYNTHETIC);
+            } else if (setupReplay()) {
+                setupScan("replay");
+                scannerService.startScan(ScannerService.ScanType.SCAN_TRACE);
+            } else {
+                setupScan("ble");
+                scannerService.startScan(ScannerService.ScanType.SCAN_BLE_DEVICE);
+            }
+        } else if (scanStatus == ScannerService.ScanType.SCAN_BLE_DEVICE
+                || scanStatus == ScannerService.ScanType.SCAN_TRACE
+                || scanStatus == ScannerService.ScanType.SCAN_SYNTHETIC) {
             scannerService.stopScan();
         } else {
             throw new IllegalStateException("BLE device button should only be accessible if idle or device scanning");
@@ -589,25 +592,110 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Setup the replay of a recorded log instead of a BLE scan, if enabled in the settings
+     *
+     * @return true if a log is replayed
+     */
+    private boolean setupSyntheticLoad() {
+        String defaultRate = getResources().getString(R.string.pref_logging_synthetic_rate_default);
+        int rate = Integer.parseInt(preferences.getString("pref_logging_synthetic_rate", defaultRate));
+        if (rate <= 0) {
+            return false;
+        }
+
+        String defaultDevices = getResources().getString(R.string.pref_synthetic_devices_default);
+        int devices = Integer.parseInt(preferences.getString("pref_synthetic_devices", defaultDevices));
+        // payload mix and RSSI distribution are stored as comma separated numbers
+        String defaultPayloadMix = getResources().getString(R.string.pref_synthetic_payload_mix_default);
+        String[] payloadMix = preferences.getString("pref_synthetic_payload_mix", defaultPayloadMix).split(",");
+        String defaultRssi = getResources().getString(R.string.pref_synthetic_rssi_default);
+        String[] rssi = preferences.getString("pref_synthetic_rssi", defaultRssi).split(",");
+        String defaultMalformed = getResources().getString(R.string.pref_synthetic_malformed_default);
+        double malformed = Double.parseDouble(preferences.getString("pref_synthetic_malformed", defaultMalformed));
+
+        scannerService.setupSyntheticLoad(devices, rate,
+                new int[]{Integer.parseInt(payloadMix[0]), Integer.parseInt(payloadMix[1]),
+                        Integer.parseInt(payloadMix[2])},
+                Integer.parseInt(rssi[0]), Integer.parseInt(rssi[1]), malformed);
+        return true;
+    }
+
+    private boolean setupReplay() {
+        String defaultReplaySpeed = getResources().getString(R.string.pref_logging_replay_speed_default);
+        String replaySpeed = preferences.getString("pref_logging_replay_speed", defaultReplaySpeed);
+        if (!isNumber(replaySpeed)) {
+            // live scan
+            return false;
+        }
+
+        // replay the CSV or binary log placed in the application directory
+        String[] formats = {BLEDeviceLog.LOG_FORMAT_CSV, BLEDeviceLog.LOG_FORMAT_BINARY};
+        for (String format : formats) {
+            File trace = new File(applicationDirectory, REPLAY_FILE_NAME + "." + format);
+            if (trace.isFile()) {
+                scannerService.setupReplay(trace, Double.parseDouble(replaySpeed));
+                return true;
+            }
+        }
+        Log.w(TAG, "no " + REPLAY_FILE_NAME + " log to replay in " + applicationDirectory);
+        Toast.makeText(this, R.string.replay_file_missing, Toast.LENGTH_LONG).show();
+        return false;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     private void setupScan(String fileSuffix) {
         boolean defaultFileLoggingEnable = getResources().getBoolean(R.bool.pref_logging_file_enable_default);
         boolean fileLoggingEnable = preferences.getBoolean("pref_logging_file_enable", defaultFileLoggingEnable);
+        String defaultLogFormat = getResources().getString(R.string.pref_logging_file_format_default);
+        String logFormat = preferences.getString("pref_logging_file_format", defaultLogFormat);
+        String defaultLogBackend = getResources().getString(R.string.pref_logging_file_backend_default);
+        String logBackend = preferences.getString("pref_logging_file_backend", defaultLogBackend);
         File logFile = null;
         if (fileLoggingEnable) {
             String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
                     .format(new Date());
-            logFile = new File(applicationDirectory, timestamp + "_" + fileSuffix);
+            logFile = new File(applicationDirectory, timestamp + "_" + fileSuffix + "." + logFormat);
         }
 
         // configure logging parameters
         String defaultMaxAge = getResources().getString(R.string.pref_ui_max_age_default);
         int maxAge = Integer.parseInt(preferences.getString("pref_ui_max_age", defaultMaxAge));
-        scannerService.setupLogging(logFile, maxAge);
+        String defaultFlushInterval = getResources().getString(R.string.pref_logging_flush_interval_default);
+        int flushInterval = Integer.parseInt(preferences.getString("pref_logging_flush_interval", defaultFlushInterval));
+        String defaultRotationSize = getResources().getString(R.string.pref_logging_rotation_size_default);
+        int rotationSize = Integer.parseInt(preferences.getString("pref_logging_rotation_size", defaultRotationSize));
+        String defaultRotationTime = getResources().getString(R.string.pref_logging_rotation_time_default);
+        int rotationTime = Integer.parseInt(preferences.getString("pref_logging_rotation_time", defaultRotationTime));
+        boolean defaultCompress = getResources().getBoolean(R.bool.pref_logging_compress_enable_default);
+        boolean compress = preferences.getBoolean("pref_logging_compress_enable", defaultCompress);
+        scannerService.setupLogging(logFile, logFormat, logBackend, maxAge, flushInterval,
+                rotationSize, rotationTime, compress);
 
         // configure scan mode
         boolean defaultAggressiveScan = getResources().getBoolean(R.bool.pref_logging_aggressive_scan_enable_default);
         boolean aggressiveScan = preferences.getBoolean("pref_logging_aggressive_scan_enable", defaultAggressiveScan);
-        scannerService.setupScan(aggressiveScan);
+        String defaultReportDelay = getResources().getString(R.string.pref_logging_report_delay_default);
+        int reportDelay = Integer.parseInt(preferences.getString("pref_logging_report_delay", defaultReportDelay));
+        scannerService.setupScan(aggressiveScan, reportDelay);
+        String defaultExpiryIntervals = getResources().getString(R.string.pref_ui_expiry_intervals_default);
+        int expiryIntervals = Integer.parseInt(preferences.getString("pref_ui_expiry_intervals", defaultExpiryIntervals));
+        scannerService.setupExpiry(expiryIntervals);
+        String defaultRssiFilter = getResources().getString(R.string.pref_ui_rssi_filter_default);
+        String rssiFilter = preferences.getString("pref_ui_rssi_filter", defaultRssiFilter);
+        String defaultPathLoss = getResources().getString(R.string.pref_ui_path_loss_default);
+        float pathLoss = Float.parseFloat(preferences.getString("pref_ui_path_loss", defaultPathLoss));
+        String defaultMeasuredPower = getResources().getString(R.string.pref_ui_measured_power_default);
+        int measuredPower = Integer.parseInt(preferences.getString("pref_ui_measured_power", defaultMeasuredPower));
+        scannerService.setupRssiFilter(rssiFilter, measuredPower, pathLoss);
 
         // configure scan filter
         Spinner ble_filter_spinner = findViewById(R.id.spinner_ble_filter);
@@ -650,6 +738,8 @@ public class MainActivity extends AppCompatActivity {
         // apply state dependent UI changes
         switch (scanStatus) {
             case SCAN_BLE_DEVICE:
+            case SCAN_TRACE:
+            case SCAN_SYNTHETIC:
                 ble_button.setText(R.string.stop_ble_device_scan);
                 ble_filter_spinner.setEnabled(false);
                 break;
@@ -667,14 +757,30 @@ public class MainActivity extends AppCompatActivity {
                 getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
             }
 
-            // clear device list
-            deviceList.clear();
+            // listen to device list changes, throttled to the update interval
+            String defaultUpdateRate = getResources().getString(R.string.pref_ui_update_interval_default);
+            int updateInterval = Integer.parseInt(preferences.getString("pref_ui_update_interval", defaultUpdateRate));
+            scannerService.setDeviceListUpdateInterval(updateInterval);
+            String defaultOrder = getResources().getString(R.string.pref_ui_sort_order_default);
+            deviceOrder = preferences.getString("pref_ui_sort_order", defaultOrder);
+            updateDeviceView();
+            deviceAdapter.setLatencyStats(scannerService.getLatencyStats());
+            scannerService.addDeviceListListener(deviceListListener);
+        } else if (scannerServiceBound) {
+            scannerService.removeDeviceListListener(deviceListListener);
+        }
+    }
 
-            // trigger list updater with minmal delay
-            updateHandler.postDelayed(listUpdateTask, 100);
-        } else {
-            updateHandler.removeCallbacks(listUpdateTask);
+    /**
+     * Apply the display order and filter, restarting from the first page of the device list
+     */
+    private void updateDeviceView() {
+        if (!scannerServiceBound) {
+            return;
         }
+        scannerService.setupDeviceView(deviceOrder, deviceFilter);
+        deviceAdapter.resetPages();
+        recyclerView.scrollToPosition(0);
     }
 
     private boolean isServiceRunning(Class<?> serviceClass) {
@@ -59,32 +59,55 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanFilter;
-import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
 import android.util.Log;
+import android.view.Choreographer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ch.miromico.miroreaderapp.R;
 
 public class ScannerService extends Service {
     protected static final String TAG = "ScannerService";
+    private static final String NOTIFICATION_CHANNEL_ID = "ch.miromico.miroreaderapp.activity";
+
     /**
-     * Android N max background scan interval of 30 min.
-     * See also: https://github.com/AltBeacon/android-beacon-library/issues/512
+     * Ingest thread message types
      */
-    protected static final long ANDROID_N_MAX_SCAN_DURATION = 30 * 60 * 1000l;
-    private static final String NOTIFICATION_CHANNEL_ID = "ch.miromico.miroreaderapp.activity";
+    private static final int MSG_SCAN_RESULT = 1;
+    private static final int MSG_BATCH_SCAN_RESULTS = 2;
+    private static final int MSG_PUBLISH = 3;
+    private static final int MSG_EXPIRE = 4;
+
+    /**
+     * Delay to collect results before publishing a new device list snapshot, one frame [ms]
+     */
+    private static final long PUBLISH_DELAY = 16;
+    /**
+     * Interval of expiring old devices while no results are received [ms]
+     */
+    private static final long EXPIRE_INTERVAL = 1000;
+    /**
+     * Min time a device stays listed after its last advertisement with adaptive expiry [ms]
+     */
+    private static final long MIN_DEVICE_AGE = 1000;
 
     private final int SCANNER_NOTIFICATION_ID = 1;
     /**
@@ -97,11 +120,6 @@ public class ScannerService extends Service {
     Notification.Builder notificationBuilder;
     NotificationManager notificationManager;
 
-    /**
-     * Handler for timed BLE device scan restarts
-     */
-    private Handler scanRestartHandler;
-
     /**
      * Scan type (if running)
      */
@@ -112,57 +130,215 @@ public class ScannerService extends Service {
      */
     private BluetoothAdapter bluetoothAdapter;
     /**
-     * Bluetooth Low Energy scanner structure
+     * Bluetooth Low Energy scan source
      */
-    private BluetoothLeScanner bleScanner;
+    private BleScanSource bleScanSource;
+    /**
+     * Source of the running scan, null if idle
+     */
+    private ScanSource scanSource;
     /**
      * BLE Scanner settings
      */
     private ScanSettings bleScanSettings;
+    /**
+     * Batching delay of the BLE scan results [ms]
+     */
+    private int reportDelay = 0;
     /**
      * BLE Scanner filter
      */
     private ArrayList<ScanFilter> bleScanFilters;
+    /**
+     * Log to replay and its replay speed, see TracePlayer
+     */
+    private File replayTrace;
+    private double replaySpeed = 1;
+    /**
+     * Number of devices, total rate and packets of the synthetic load, see SyntheticScanSource
+     */
+    private int syntheticDeviceCount = 0;
+    private int syntheticRate = 0;
+    private int[] syntheticPayloadMix = {1, 1, 1};
+    private int syntheticRssiMean = -70;
+    private int syntheticRssiDeviation = 10;
+    private double syntheticMalformedRate = 0;
+
+    /**
+     * Latencies of the processing stages of the current scan
+     */
+    private final LatencyStats latencyStats = new LatencyStats();
+    /**
+     * Number of advertisements received from the scan source
+     */
+    private final StripedCounter receivedCounter = new StripedCounter();
+    /**
+     * Diagnostics sampler of the dashboard, created on first use
+     */
+    private DiagnosticsSampler diagnosticsSampler;
+    /**
+     * Log file of the current scan, the latency report is written next to it
+     */
+    private File logFile;
 
     /**
      * BLE device log manager
      */
     private BLEDeviceLog deviceLog;
     /**
-     * Bluetooth LE scan callback
+     * Thread processing the scan results and all device log updates
+     */
+    private HandlerThread ingestThread;
+    private Handler ingestHandler;
+    /**
+     * Whether a snapshot publication is scheduled, accessed by the ingest thread only
+     */
+    private boolean publishPending = false;
+
+    /**
+     * Device list listeners, notified on the main thread at most once per frame
+     */
+    private final ArrayList<DeviceListListener> deviceListListeners = new ArrayList<>();
+    /**
+     * Listener notified when the scan stops by itself, and the number of the running scan to
+     * ignore late notifications of previous scans
+     */
+    private ScanStateListener scanStateListener = null;
+    private volatile int scanGeneration = 0;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Choreographer choreographer;
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+    /**
+     * Last snapshot passed to the listeners, its time and the min interval between them [ns]
+     */
+    private DeviceSnapshot dispatchedSnapshot = DeviceSnapshot.EMPTY;
+    private long dispatchTime = 0;
+    private long dispatchInterval = 0;
+
+    /**
+     * Notifies the listeners of the latest device list with the next frame
+     */
+    private Choreographer.FrameCallback dispatchCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // throttle to the update interval
+            long wait = dispatchTime + dispatchInterval - frameTimeNanos;
+            if (wait > 0) {
+                choreographer.postFrameCallbackDelayed(this, wait / 1000000);
+                return;
+            }
+
+            // clear first, snapshots published from now on need another frame
+            dispatchPending.set(false);
+            DeviceSnapshot snapshot = deviceLog.getSnapshot();
+            if (!snapshot.isChangedSince(dispatchedSnapshot.getVersion())) {
+                return;
+            }
+
+            int added = (int) (snapshot.getAddedCount() - dispatchedSnapshot.getAddedCount());
+            int updated = (int) (snapshot.getUpdatedCount() - dispatchedSnapshot.getUpdatedCount());
+            int removed = (int) (snapshot.getRemovedCount() - dispatchedSnapshot.getRemovedCount());
+            dispatchedSnapshot = snapshot;
+            dispatchTime = frameTimeNanos;
+            for (int i = 0; i < deviceListListeners.size(); i++) {
+                deviceListListeners.get(i).onDeviceListChanged(snapshot, added, updated, removed);
+            }
+        }
+    };
+
+    /**
+     * Processes scan results handed over by the scan callback on the ingest thread
      */
-    private ScanCallback bleScanCallback = new ScanCallback() {
+    private Handler.Callback ingestCallback = new Handler.Callback() {
         @Override
-        public void onScanResult(int callbackType, final ScanResult result) {
-            super.onScanResult(callbackType, result);
-            Log.v(TAG, result.getDevice().getAddress());
-            deviceLog.add(new BLEDevice(result));
-
-            // TODO notify bound activity to update UI if available
-//            bleDeviceList = bleDeviceLog.getDeviceList();
-//            deviceAdapter.notifyDataSetChanged();
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_SCAN_RESULT:
+                    ingest((BLEDevice) msg.obj);
+                    return true;
+
+                case MSG_BATCH_SCAN_RESULTS:
+                    @SuppressWarnings("unchecked")
+                    List<BLEDevice> devices = (List<BLEDevice>) msg.obj;
+                    ingestAll(devices);
+                    return true;
+
+                case MSG_PUBLISH:
+                    publishPending = false;
+                    if (deviceLog.publishSnapshot()) {
+                        requestDispatch();
+                    }
+                    return true;
+
+                case MSG_EXPIRE:
+                    if (deviceLog.expireDevices() > 0) {
+                        schedulePublish();
+                    }
+                    ingestHandler.sendEmptyMessageDelayed(MSG_EXPIRE, EXPIRE_INTERVAL);
+                    return true;
+            }
+            return false;
         }
     };
 
     /**
-     * Bluetooth LE scan restart timeout callback
+     * Receives the results of the scan source and hands them over to the ingest thread, results
+     * delivered on the ingest thread, e.g. by the BLE scan source, are processed right away
      */
-    private Runnable scanRestartTask = new Runnable() {
+    private ScanSource.Listener scanSourceListener = new ScanSource.Listener() {
         @Override
-        public void run() {
-            Log.i(TAG, "scanRestartTask()");
+        public void onScanResult(BLEDevice device) {
+            receivedCounter.increment();
+            latencyStats.record(LatencyStats.STAGE_CALLBACK, device.getTimestamp());
+            if (Looper.myLooper() == ingestThread.getLooper()) {
+                ingest(device);
+            } else {
+                ingestHandler.obtainMessage(MSG_SCAN_RESULT, device).sendToTarget();
+            }
+        }
 
-            // skip if no BLE scan is running
-            if (scanType != ScanType.SCAN_BLE_DEVICE) {
-                Log.i(TAG, "scanRestartTask: no scan running");
-                return;
+        @Override
+        public void onBatchScanResults(List<BLEDevice> devices) {
+            receivedCounter.add(devices.size());
+            for (int i = 0; i < devices.size(); i++) {
+                latencyStats.record(LatencyStats.STAGE_CALLBACK, devices.get(i).getTimestamp());
             }
+            if (Looper.myLooper() == ingestThread.getLooper()) {
+                ingestAll(devices);
+            } else {
+                ingestHandler.obtainMessage(MSG_BATCH_SCAN_RESULTS, devices).sendToTarget();
+            }
+        }
 
-            // restart the BLE scan
-            restartScan();
+        @Override
+        public void onScanFailed(String message) {
+            Log.e(TAG, "scan failed: " + message);
+            postStopScan(message);
+        }
+
+        @Override
+        public void onScanFinished() {
+            Log.i(TAG, "scan source finished");
+            postStopScan(null);
+        }
 
-            // schedule next restart of BLE scan
-            scanRestartHandler.postDelayed(scanRestartTask, ANDROID_N_MAX_SCAN_DURATION / 2);
+        /**
+         * Stop the scan on the main thread, unless it was stopped or restarted meanwhile
+         */
+        private void postStopScan(final String error) {
+            final int generation = scanGeneration;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation != scanGeneration || scanType == ScanType.SCAN_IDLE) {
+                        return;
+                    }
+                    stopScan();
+                    if (scanStateListener != null) {
+                        scanStateListener.onScanStopped(error);
+                    }
+                }
+            });
         }
     };
 
@@ -177,6 +353,8 @@ public class ScannerService extends Service {
     @Override
     public void onCreate() {
         Log.i(TAG, "onCreate()");
+        // route the logging of the core library to logcat
+        CoreLog.setSink(new AndroidLogSink());
 
         // create notification and register foreground service
         Intent notificationIntent = new Intent(this, MainActivity.class);
@@ -208,15 +386,23 @@ public class ScannerService extends Service {
         Notification notification = notificationBuilder.build();
         startForeground(SCANNER_NOTIFICATION_ID, notification);
 
-        // prepare logging
+        // prepare logging and the thread processing scan results
         deviceLog = new BLEDeviceLog();
+        deviceLog.setLatencyStats(latencyStats);
+        ingestThread = new HandlerThread(TAG + "Ingest", Process.THREAD_PRIORITY_DEFAULT);
+        ingestThread.start();
+        ingestHandler = new Handler(ingestThread.getLooper(), ingestCallback);
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.setProfileRegistry(loadProfileRegistry());
+            }
+        });
+        choreographer = Choreographer.getInstance();
 
         // initialize scanners and scanner settings
         initBleScanner();
         bleScanFilters = new ArrayList<>();
-
-        // init BLE scan restart handler
-        scanRestartHandler = new Handler();
     }
 
     @Override
@@ -225,6 +411,11 @@ public class ScannerService extends Service {
 
         // stop foreground task and remove notification
         stopForeground(true);
+
+        // finish processing pending results and log updates
+        ingestThread.quitSafely();
+        choreographer.removeFrameCallback(dispatchCallback);
+        deviceListListeners.clear();
     }
 
     @Override
@@ -268,32 +459,66 @@ public class ScannerService extends Service {
         }
 
         // get a BLE scanner object
-        bleScanner = bluetoothAdapter.getBluetoothLeScanner();
+        bleScanSource = new BleScanSource(bluetoothAdapter.getBluetoothLeScanner(),
+                ingestThread.getLooper());
 
-        setupScan(true);
+        setupScan(true, 0);
     }
 
     /**
      * Setup the logging of BLE devices
      *
-     * @param logFile      The file to store a log of all received BLE  packets
-     * @param deviceMaxAge Max device age before removing from the list
+     * @param logFile       The file to store a log of all received BLE  packets
+     * @param logFormat     The log file format, see BLEDeviceLog
+     * @param logBackend    The log file backend, see BLEDeviceLog
+     * @param deviceMaxAge  Max device age before removing from the list
+     * @param flushInterval Max time in milliseconds before logged packets are written to file
+     * @param rotationSize  Max log file size in MB before starting a new file, 0 to disable
+     * @param rotationTime  Max log file duration in minutes before starting a new file, 0 to disable
+     * @param compress      Whether to compress rotated log files
      */
-    public void setupLogging(File logFile, int deviceMaxAge) {
+    public void setupLogging(final File logFile, final String logFormat, final String logBackend,
+                             final int deviceMaxAge, final int flushInterval, final int rotationSize,
+                             final int rotationTime, final boolean compress) {
         Log.i(TAG, "setupLogging()");
-
-        if (logFile != null) {
-            deviceLog.enableFileLogging(logFile);
-        } else {
-            deviceLog.disableFileLogging();
-        }
-
-        deviceLog.setDeviceMaxAge(deviceMaxAge);
+        this.logFile = logFile;
+
+        // configure on the ingest thread, in order with the processing of scan results
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.setLogFormat(logFormat);
+                deviceLog.setLogBackend(logBackend);
+                deviceLog.setLogRotation(rotationSize * 1024L * 1024L, rotationTime * 60000L, compress);
+                deviceLog.setFlushInterval(flushInterval);
+                if (logFile != null) {
+                    deviceLog.enableFileLogging(logFile);
+                } else {
+                    deviceLog.disableFileLogging();
+                }
+
+                deviceLog.setDeviceMaxAge(deviceMaxAge);
+            }
+        });
     }
 
-    public void setupScan(boolean aggressiveScan) {
+    /**
+     * Setup the BLE scan settings
+     *
+     * @param aggressiveScan Use aggressive match mode
+     * @param reportDelay    Delay in milliseconds to collect scan results into batches, 0 to deliver
+     *                       each result immediately
+     */
+    public void setupScan(boolean aggressiveScan, int reportDelay) {
         Log.i(TAG, "setupScan()");
 
+        // batching requires support by the bluetooth controller, there is none without bluetooth
+        if (reportDelay > 0 && (bluetoothAdapter == null
+                || !bluetoothAdapter.isOffloadedScanBatchingSupported())) {
+            Log.w(TAG, "scan batching not supported, delivering results immediately");
+            reportDelay = 0;
+        }
+
         // prepare default scan settings
         ScanSettings.Builder builder = new ScanSettings.Builder();
         builder.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
@@ -302,8 +527,48 @@ public class ScannerService extends Service {
         }
         builder.setNumOfMatches(ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT);
         builder.setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES);
-        builder.setReportDelay(0);
+        builder.setReportDelay(reportDelay);
         bleScanSettings = builder.build();
+        this.reportDelay = reportDelay;
+    }
+
+    /**
+     * Setup the adaptive expiry of devices, call after {@link #setupScan(boolean, int)}
+     *
+     * @param missedIntervals Number of missed advertising intervals before a device is removed
+     *                        from the list, 0 to remove devices after the max age only
+     */
+    public void setupExpiry(final int missedIntervals) {
+        Log.i(TAG, "setupExpiry()");
+
+        // batched results arrive up to the report delay late, do not expire devices meanwhile
+        final long minAge = Math.max(MIN_DEVICE_AGE, 2L * reportDelay);
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.setAdaptiveExpiry(missedIntervals, minAge);
+            }
+        });
+    }
+
+    /**
+     * Setup the signal strength filter and the proximity estimation
+     *
+     * @param rssiFilter       The filter, see {@link RssiFilter}
+     * @param measuredPower    Signal strength of the beacons at 1 m [dBm]
+     * @param pathLossExponent Path loss exponent of the environment
+     */
+    public void setupRssiFilter(final String rssiFilter, final int measuredPower,
+                                final float pathLossExponent) {
+        Log.i(TAG, "setupRssiFilter()");
+
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.getRssiFilter().setFilter(rssiFilter);
+                deviceLog.getRssiFilter().setPathLoss(measuredPower, pathLossExponent);
+            }
+        });
     }
 
     public void setupFilter(ArrayList<String> bleMACs) {
@@ -322,6 +587,42 @@ public class ScannerService extends Service {
         }
     }
 
+    /**
+     * Setup the replay of a recorded log, started with {@link ScanType#SCAN_TRACE}
+     *
+     * @param trace The CSV or binary log to replay
+     * @param speed Replay speed relative to the recording, or {@link TracePlayer#SPEED_MAX}
+     */
+    public void setupReplay(File trace, double speed) {
+        Log.i(TAG, "setupReplay()");
+
+        replayTrace = trace;
+        replaySpeed = speed;
+    }
+
+    /**
+     * Setup the synthetic advertisement load, started with {@link ScanType#SCAN_SYNTHETIC}. The
+     * advertising interval of each device is the device count divided by the rate.
+     *
+     * @param deviceCount   Number of simulated devices
+     * @param rate          Total rate in advertisements per second
+     * @param payloadMix    Weights of the sensor V2, MiroCard and personal MiroCard payloads
+     * @param rssiMean      Mean RSSI in dBm
+     * @param rssiDeviation Standard deviation of the RSSI in dB
+     * @param malformedRate Share of malformed advertisement records between 0 and 1
+     */
+    public void setupSyntheticLoad(int deviceCount, int rate, int[] payloadMix, int rssiMean,
+                                   int rssiDeviation, double malformedRate) {
+        Log.i(TAG, "setupSyntheticLoad()");
+
+        syntheticDeviceCount = deviceCount;
+        syntheticRate = rate;
+        syntheticPayloadMix = payloadMix;
+        syntheticRssiMean = rssiMean;
+        syntheticRssiDeviation = rssiDeviation;
+        syntheticMalformedRate = malformedRate;
+    }
+
     public void startScan(ScanType type) {
         Log.i(TAG, "startScan()");
 
@@ -335,24 +636,63 @@ public class ScannerService extends Service {
             throw new IllegalStateException("another scan is running already");
         }
 
+        scanGeneration++;
+
         // clear log
-        deviceLog.clear();
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.clear();
+                latencyStats.reset();
+                if (deviceLog.publishSnapshot()) {
+                    requestDispatch();
+                }
+                // expire devices while no results are received, only while scanning
+                ingestHandler.removeMessages(MSG_EXPIRE);
+                ingestHandler.sendEmptyMessageDelayed(MSG_EXPIRE, EXPIRE_INTERVAL);
+            }
+        });
 
         // start corresponding scan
         switch (type) {
             case SCAN_BLE_DEVICE:
                 // start scanning BLE devices
-                bleScanner.startScan(bleScanFilters, bleScanSettings, bleScanCallback);
+                bleScanSource.setup(bleScanSettings, bleScanFilters);
+                scanSource = bleScanSource;
                 notificationBuilder.setContentText(getText(R.string.scanner_notification_scan_device));
-                Log.i(TAG, "started BLE device scan...");
+                break;
+
+            case SCAN_TRACE:
+                if (replayTrace == null) {
+                    throw new IllegalStateException("no trace to replay");
+                }
+                scanSource = new TracePlayer(replayTrace, replaySpeed);
+                notificationBuilder.setContentText(getText(R.string.scanner_notification_replay));
+                Log.i(TAG, "replaying " + replayTrace + " at speed " + replaySpeed);
+                break;
 
-                // schedule restart of BLE scan before system scan timeout
-                scanRestartHandler.postDelayed(scanRestartTask, ANDROID_N_MAX_SCAN_DURATION / 2);
+            case SCAN_SYNTHETIC:
+                if (syntheticRate <= 0) {
+                    throw new IllegalStateException("no synthetic load configured");
+                }
+                SyntheticScanSource generator =
+                        SyntheticScanSource.withRate(syntheticDeviceCount, syntheticRate);
+                generator.setPayloadMix(syntheticPayloadMix[0], syntheticPayloadMix[1],
+                        syntheticPayloadMix[2]);
+                generator.setRssi(syntheticRssiMean, syntheticRssiDeviation);
+                generator.setMalformedRate(syntheticMalformedRate);
+                scanSource = generator;
+                notificationBuilder.setContentText(getText(R.string.scanner_notification_synthetic));
+                Log.i(TAG, "generating " + syntheticRate + " advertisements/s of "
+                        + syntheticDeviceCount + " devices");
                 break;
 
             case SCAN_BLUETOOTH:
                 break;
         }
+        if (scanSource != null) {
+            scanSource.start(scanSourceListener);
+        }
 
         scanType = type;
         notificationManager.notify(SCANNER_NOTIFICATION_ID, notificationBuilder.build());
@@ -366,22 +706,24 @@ public class ScannerService extends Service {
             throw new IllegalStateException("no active scan");
         }
 
-        // start corresponding scan
-        switch (scanType) {
-            case SCAN_BLE_DEVICE:
-                bleScanner.stopScan(bleScanCallback);
-                Log.i(TAG, "stopped BLE device scan...");
-
-                scanRestartHandler.removeCallbacks(scanRestartTask);
-                break;
-
-            case SCAN_BLUETOOTH:
-
-                break;
+        // stop the source of the running scan
+        if (scanSource != null) {
+            scanSource.stop();
+            scanSource = null;
         }
 
-        // disable file logging to close open files
-        deviceLog.disableFileLogging();
+        // disable file logging to close open files, after processing the pending results
+        final File sessionLogFile = logFile;
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ingestHandler.removeMessages(MSG_EXPIRE);
+                deviceLog.disableFileLogging();
+                if (sessionLogFile != null) {
+                    writeLatencyReport(sessionLogFile);
+                }
+            }
+        });
 
         scanType = ScanType.SCAN_IDLE;
 
@@ -389,28 +731,223 @@ public class ScannerService extends Service {
         notificationManager.notify(SCANNER_NOTIFICATION_ID, notificationBuilder.build());
     }
 
-    private void restartScan() {
-        Log.i(TAG, "restartScan()");
+    /**
+     * Write the latencies of the scan into the directory of its log file
+     *
+     * @param sessionLogFile The log file of the scan
+     */
+    private void writeLatencyReport(File sessionLogFile) {
+        String name = sessionLogFile.getName();
+        int extension = name.lastIndexOf('.');
+        File report = new File(sessionLogFile.getParentFile(),
+                (extension > 0 ? name.substring(0, extension) : name) + "_latency.txt");
+        try {
+            latencyStats.writeReport(report);
+            Log.i(TAG, "latency report written to " + report);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write latency report: " + e.getMessage());
+        }
+    }
 
-        // abort if scan is running
-        if (scanType != ScanType.SCAN_BLE_DEVICE) {
-            throw new IllegalStateException("can only restart BLE device scan");
+    /**
+     * Get the latencies of the processing stages of the current or last scan, from the reception
+     * of an advertisement up to the callback, device table update, log file write, device list
+     * publication and binding of the updated row. Can be read from any thread.
+     *
+     * @return The latency statistics
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * Sample the performance figures of the scan pipeline since the last call, call from the
+     * main thread only
+     *
+     * @return The diagnostics sample
+     */
+    public DiagnosticsSample sampleDiagnostics() {
+        if (diagnosticsSampler == null) {
+            diagnosticsSampler = new DiagnosticsSampler(receivedCounter, deviceLog, latencyStats);
         }
+        return diagnosticsSampler.sample();
+    }
 
-        // stop and restart scanning BLE devices
-        bleScanner.stopScan(bleScanCallback);
-        bleScanner.startScan(bleScanFilters, bleScanSettings, bleScanCallback);
-        Log.i(TAG, "restarted BLE device scan...");
+    /**
+     * Get the number of timed restarts of the Bluetooth LE scan
+     *
+     * @return The number of restarts since the service was created
+     */
+    public int getScanRestartCount() {
+        return bleScanSource != null ? bleScanSource.getRestartCount() : 0;
     }
 
     public ScanType getScanStatus() {
         return scanType;
     }
 
-    public ArrayList<BLEDevice> getActiveDeviceList() {
+    /**
+     * Get the active devices, can be called from any thread
+     *
+     * @return Unmodifiable snapshot of the device list
+     */
+    public List<BLEDevice> getActiveDeviceList() {
         return deviceLog.getDeviceList();
     }
 
+    /**
+     * Get the latest published device list, can be called from any thread without blocking
+     *
+     * @return The versioned snapshot of the device list
+     */
+    public DeviceSnapshot getDeviceSnapshot() {
+        return deviceLog.getSnapshot();
+    }
+
+    /**
+     * Set the order and filter of the published device list
+     *
+     * @param order  The display order, see {@link SortedDeviceIndex}
+     * @param filter MAC address or name prefix, empty for all devices
+     */
+    public void setupDeviceView(final String order, final String filter) {
+        ingestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deviceLog.setDeviceOrder(order);
+                deviceLog.setDeviceFilter(filter);
+                if (deviceLog.publishSnapshot()) {
+                    requestDispatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Load the card profiles, from the app storage if available, else the app assets
+     *
+     * @return The profile registry, empty if none could be loaded
+     */
+    private DeviceProfileRegistry loadProfileRegistry() {
+        try {
+            File file = new File(getFilesDir(), DeviceProfileRegistry.FILE_NAME);
+            InputStream in = file.exists() ? new FileInputStream(file) : getAssets().open(DeviceProfileRegistry.FILE_NAME);
+            DeviceProfileRegistry registry = DeviceProfileRegistry.load(in);
+            Log.i(TAG, "loaded " + registry.size() + " device profiles");
+            return registry;
+        } catch (IOException e) {
+            Log.e(TAG, "failed to load device profiles", e);
+            return DeviceProfileRegistry.EMPTY;
+        }
+    }
+
+    /**
+     * Register a listener for device list changes, must be called from the main thread. The
+     * listener is called with the current device list right away.
+     *
+     * @param listener The listener to add
+     */
+    public void addDeviceListListener(DeviceListListener listener) {
+        if (!deviceListListeners.contains(listener)) {
+            deviceListListeners.add(listener);
+        }
+        listener.onDeviceListChanged(dispatchedSnapshot, dispatchedSnapshot.size(), 0, 0);
+        requestDispatch();
+    }
+
+    /**
+     * Unregister a device list listener, must be called from the main thread
+     *
+     * @param listener The listener to remove
+     */
+    public void removeDeviceListListener(DeviceListListener listener) {
+        deviceListListeners.remove(listener);
+    }
+
+    /**
+     * Set the listener notified when the scan stops by itself, must be called from the main thread
+     *
+     * @param listener The listener, or null to remove
+     */
+    public void setScanStateListener(ScanStateListener listener) {
+        this.scanStateListener = listener;
+    }
+
+    /**
+     * Set the min interval between device list notifications, must be called from the main thread
+     *
+     * @param interval Interval in [ms], 0 to notify with every frame
+     */
+    public void setDeviceListUpdateInterval(int interval) {
+        dispatchInterval = interval * 1000000L;
+    }
+
+    private void ingest(BLEDevice device) {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, device.getAddress());
+        }
+        deviceLog.add(device);
+        schedulePublish();
+    }
+
+    private void ingestAll(List<BLEDevice> devices) {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "batch of " + devices.size() + " results");
+        }
+        // process the whole batch at once
+        deviceLog.addAll(devices);
+        schedulePublish();
+    }
+
+    /**
+     * Publish the device list once after a burst of results instead of after each result, call on
+     * the ingest thread
+     */
+    private void schedulePublish() {
+        if (!publishPending) {
+            publishPending = true;
+            ingestHandler.sendEmptyMessageDelayed(MSG_PUBLISH, PUBLISH_DELAY);
+        }
+    }
+
+    /**
+     * Schedule notifying the device list listeners with the next frame, callable from any thread
+     */
+    private void requestDispatch() {
+        if (dispatchPending.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(dispatchCallback);
+        }
+    }
+
+    /**
+     * Listener interface for device list changes, called on the main thread
+     */
+    public interface DeviceListListener {
+        /**
+         * Called with the next frame after the device list changed. Changes between two
+         * notifications are coalesced, so the number of events is passed instead of the events.
+         *
+         * @param snapshot The current device list
+         * @param added    Number of devices added since the last notification
+         * @param updated  Number of updates of existing devices since the last notification
+         * @param removed  Number of devices expired or cleared since the last notification
+         */
+        void onDeviceListChanged(DeviceSnapshot snapshot, int added, int updated, int removed);
+    }
+
+    /**
+     * Listener interface for scans stopped by the scan source, called on the main thread
+     */
+    public interface ScanStateListener {
+        /**
+         * Called after the scan was stopped because its source finished or failed, e.g. at the
+         * end of a replayed log
+         *
+         * @param error The error message, or null if the source finished
+         */
+        void onScanStopped(String error);
+    }
+
     /**
      * Scan type enum
      */
@@ -418,6 +955,8 @@ public class ScannerService extends Service {
         SCAN_IDLE,
         SCAN_BLE_DEVICE,
         SCAN_BLUETOOTH,
+        SCAN_TRACE,
+        SCAN_SYNTHETIC,
     }
 
     /**
@@ -0,0 +1,86 @@
+package ch.miromico.miroreaderapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Recorded advertisement payloads and generated device observations shared by the benchmarks.
+ */
+final class BenchmarkData {
+    /**
+     * MiroCard advertisement with sensor data
+     */
+    static final byte[] MIROCARD = {
+            0x10, (byte) 0xFF, 0x00,
+            (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, 0x07,
+            (byte) 0xC4, 0x39, 0x63, (byte) 0xD2, 0x04, (byte) 0xC8, (byte) 0xB0, 0x44, 0x06,
+    };
+
+    /**
+     * Personal MiroCard prototype
+     */
+    static final byte[] PERSONAL = {
+            0x10, (byte) 0xFF, 0x00,
+            (byte) 0xFA, (byte) 0xFB, (byte) 0xFC, (byte) 0xFD, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    /**
+     * Transient BLE sensor V2 with temperature/humidity data (old data format)
+     */
+    static final byte[] SENSOR_V2 = {
+            0x10, (byte) 0xFF, 0x00,
+            0x78, 0x56, 0x34, 0x12, (byte) 0xC4,
+            0x39, 0x63, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    static final byte[][] RECORDS = {MIROCARD, PERSONAL, SENSOR_V2};
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generate observations of a set of devices with varying payloads and signal strength
+     *
+     * @param count   Number of observations
+     * @param devices Number of distinct devices
+     * @return The observations, time stamped 10 ms apart from now on
+     */
+    static List<BLEDevice> observations(int count, int devices) {
+        Random random = new Random(5);
+        List<BLEDevice> list = new ArrayList<>(count);
+        long timestamp = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            byte[] record = RECORDS[i % RECORDS.length].clone();
+            record[12] = (byte) random.nextInt();
+            timestamp += 10000000L;
+            list.add(new BLEDevice("MiroCard", MacAddress.format(0x1804ED610000L + random.nextInt(devices)),
+                    timestamp, -40 - random.nextInt(60), record));
+        }
+        return list;
+    }
+
+    /**
+     * Generate observations of a set of devices advertising periodically, in turn
+     *
+     * @param count    Number of observations
+     * @param devices  Number of distinct devices
+     * @param interval Advertising interval of each device [ns]
+     * @return The observations, the device of observation i is i % devices
+     */
+    static List<BLEDevice> periodicObservations(int count, int devices, long interval) {
+        Random random = new Random(7);
+        List<BLEDevice> list = new ArrayList<>(count);
+        long timestamp = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            byte[] record = RECORDS[i % RECORDS.length].clone();
+            timestamp += interval / devices;
+            // devices at different distances with a noisy signal
+            int rssi = -45 - (i % devices) % 40 - random.nextInt(21) + 10;
+            list.add(new BLEDevice("MiroCard", MacAddress.format(0x1804ED610000L + i % devices),
+                    timestamp, rssi, record));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,48 @@
+package ch.miromico.miroreaderapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and decoding of the recorded advertisement payloads, run for every received packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecoderBenchmark {
+    private final AdvertisementParser parser = new AdvertisementParser();
+    private int next = 0;
+
+    private byte[] nextRecord() {
+        byte[] record = BenchmarkData.RECORDS[next];
+        next = (next + 1) % BenchmarkData.RECORDS.length;
+        return record;
+    }
+
+    @Benchmark
+    public boolean parseManufacturerData() {
+        return parser.reset(nextRecord()).findManufacturerData();
+    }
+
+    @Benchmark
+    public MiroCardSample decode() {
+        return MiroCardDecoder.decode(nextRecord());
+    }
+
+    @Benchmark
+    public String hexString() {
+        return AdvertisementParser.toHexString(nextRecord());
+    }
+
+    @Benchmark
+    public void parseAddress(Blackhole blackhole) {
+        blackhole.consume(MacAddress.parse("18:04:ED:61:66:3D"));
+    }
+}
@@ -0,0 +1,83 @@
+package ch.miromico.miroreaderapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device table update and expiry, i.e. the per packet work of the ingest thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceTableBenchmark {
+    private static final long TICK = 10000000L;
+
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    private List<BLEDevice> observations;
+    private BLEDeviceTable table;
+    private ExpiryWheel wheel;
+    private BLEDeviceLog deviceLog;
+    private int next;
+    private long now;
+
+    private final ExpiryWheel.Callback expiryCallback = new ExpiryWheel.Callback() {
+        @Override
+        public void onExpired(int slot) {
+            table.removeSlot(slot);
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        observations = BenchmarkData.observations(4096, devices);
+        table = new BLEDeviceTable();
+        wheel = new ExpiryWheel(TICK, 256, devices);
+        deviceLog = new BLEDeviceLog();
+        deviceLog.setDeviceMaxAge(10);
+        next = 0;
+        now = 0;
+    }
+
+    private BLEDevice nextObservation() {
+        BLEDevice device = observations.get(next);
+        next = (next + 1) & (observations.size() - 1);
+        return device;
+    }
+
+    @Benchmark
+    public int tablePut() {
+        return table.put(nextObservation());
+    }
+
+    @Benchmark
+    public int tablePutAndExpire() {
+        int slot = table.put(nextObservation());
+        now += TICK;
+        // devices not seen for a second expire
+        wheel.schedule(slot, now + 100 * TICK);
+        return wheel.advance(now, expiryCallback);
+    }
+
+    @Benchmark
+    public void deviceLogAdd() {
+        deviceLog.add(nextObservation());
+    }
+
+    @Benchmark
+    public boolean deviceLogPublish() {
+        deviceLog.add(nextObservation());
+        return deviceLog.publishSnapshot();
+    }
+}
@@ -0,0 +1,179 @@
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stress test of the ingest pipeline with synthetic advertisements at increasing rates.
+ * <p>
+ * The generated observations are passed through a queue to an ingest thread, like the scanner
+ * service does with its handler thread, which updates the device log, writes the log file and
+ * publishes the device list snapshot once per frame. Reports the sustained throughput, the
+ * latency from the scheduled send time to the processed device log update and the allocation
+ * rate of the ingest thread.
+ * <p>
+ * Usage: {@code ./gradlew :core:loadTest [-Pargs="seconds devices format"]}
+ */
+public class LoadTestRunner {
+    private static final int[] RATES = {1000, 5000, 10000, 20000, 50000};
+    private static final long FRAME_NANOS = 16000000L;
+
+    private final int seconds;
+    private final int devices;
+    private final String logFormat;
+
+    private LoadTestRunner(int seconds, int devices, String logFormat) {
+        this.seconds = seconds;
+        this.devices = devices;
+        this.logFormat = logFormat;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String logFormat = args.length > 2 ? args[2] : BLEDeviceLog.LOG_FORMAT_BINARY;
+        LoadTestRunner runner = new LoadTestRunner(seconds, devices, logFormat);
+
+        System.out.println("rate [adv/s]  processed [adv/s]  p50 [us]  p99 [us]  p99.9 [us]  max [us]"
+                + "  max backlog  log drops  alloc [MB/s]");
+        for (int rate : RATES) {
+            runner.run(rate);
+        }
+    }
+
+    private void run(int rate) throws Exception {
+        final BLEDeviceLog deviceLog = new BLEDeviceLog();
+        deviceLog.setDeviceMaxAge(10);
+        deviceLog.setLogFormat(logFormat);
+        File directory = File.createTempFile("loadtest", "");
+        directory.delete();
+        directory.mkdir();
+        deviceLog.enableFileLogging(new File(directory, "loadtest." + logFormat));
+
+        SyntheticScanSource source = SyntheticScanSource.withRate(devices, rate);
+        source.setMalformedRate(0.01);
+        final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        final long[] latencies = new long[(int) (rate * seconds * 1.5) + 1024];
+        final long[] processed = new long[1];
+        final int[] maxBacklog = new int[1];
+        final long[] allocated = new long[1];
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        Thread ingestThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long nextPublish = System.nanoTime() + FRAME_NANOS;
+                long threadId = Thread.currentThread().getId();
+                long allocatedBefore = allocatedBytes(threads, threadId);
+                try {
+                    while (true) {
+                        Object item = queue.poll(FRAME_NANOS, TimeUnit.NANOSECONDS);
+                        if (item == queue) {
+                            break;
+                        }
+                        if (item != null) {
+                            maxBacklog[0] = Math.max(maxBacklog[0], queue.size());
+                            process(deviceLog, item, latencies, processed);
+                        }
+                        long now = System.nanoTime();
+                        if (now - nextPublish >= 0) {
+                            deviceLog.publishSnapshot();
+                            deviceLog.expireDevices();
+                            nextPublish = now + FRAME_NANOS;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                allocated[0] = allocatedBytes(threads, threadId) - allocatedBefore;
+            }
+        }, "Ingest");
+
+        ingestThread.start();
+        long start = System.nanoTime();
+        source.start(new ScanSource.Listener() {
+            @Override
+            public void onScanResult(BLEDevice device) {
+                queue.add(device);
+            }
+
+            @Override
+            public void onBatchScanResults(List<BLEDevice> devices) {
+                queue.add(devices);
+            }
+
+            @Override
+            public void onScanFailed(String message) {
+                System.err.println("generator failed: " + message);
+            }
+
+            @Override
+            public void onScanFinished() {
+            }
+        });
+        Thread.sleep(seconds * 1000L);
+        source.stop();
+        // the queue itself marks the end of the run
+        queue.add(queue);
+        ingestThread.join();
+        long elapsed = System.nanoTime() - start;
+
+        long drops = deviceLog.getLogWriter().getDroppedCount();
+        deviceLog.disableFileLogging();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+
+        int count = (int) Math.min(processed[0], latencies.length);
+        Arrays.sort(latencies, 0, count);
+        System.out.println(String.format("%12d  %17.0f  %8d  %8d  %10d  %8d  %11d  %9d  %12.1f",
+                rate, processed[0] * 1e9 / elapsed,
+                percentile(latencies, count, 0.5) / 1000, percentile(latencies, count, 0.99) / 1000,
+                percentile(latencies, count, 0.999) / 1000, percentile(latencies, count, 1) / 1000,
+                maxBacklog[0], drops, allocated[0] * 1e9 / elapsed / (1024 * 1024)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void process(BLEDeviceLog deviceLog, Object item, long[] latencies, long[] processed) {
+        if (item instanceof BLEDevice) {
+            BLEDevice device = (BLEDevice) item;
+            deviceLog.add(device);
+            record(latencies, processed, System.nanoTime() - device.getTimestamp());
+        } else {
+            List<BLEDevice> devices = (List<BLEDevice>) item;
+            deviceLog.addAll(devices);
+            long now = System.nanoTime();
+            for (int i = 0; i < devices.size(); i++) {
+                record(latencies, processed, now - devices.get(i).getTimestamp());
+            }
+        }
+    }
+
+    private static void record(long[] latencies, long[] processed, long latency) {
+        if (processed[0] < latencies.length) {
+            latencies[(int) processed[0]] = latency;
+        }
+        processed[0]++;
+    }
+
+    private static long percentile(long[] sorted, int count, double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.min(count - 1, (int) (quantile * count))];
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads, long threadId) {
+        // allocation counters are a HotSpot extension
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+        }
+        return 0;
+    }
+}
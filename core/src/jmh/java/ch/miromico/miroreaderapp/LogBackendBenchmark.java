@@ -0,0 +1,90 @@
+package ch.miromico.miroreaderapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing text log rows through the stream and the memory mapped log backends, paced at a fixed
+ * record rate and flushing every 100 ms like the log writer thread does. The pacing wait is done
+ * in the per-invocation setup, so only the write of each row is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogBackendBenchmark {
+    private static final long FLUSH_INTERVAL = 100000000L;
+
+    @Param({BLEDeviceLog.LOG_BACKEND_STREAM, BLEDeviceLog.LOG_BACKEND_MAPPED})
+    public String backend;
+
+    /**
+     * Records per second
+     */
+    @Param({"1000", "10000", "50000"})
+    public int rate;
+
+    private List<BLEDevice> observations;
+    private final CsvRowEncoder encoder = new CsvRowEncoder();
+    private File file;
+    private OutputStream out;
+    private long lastFlush;
+    private long interval;
+    private long nextWrite;
+    private int next = 0;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        observations = BenchmarkData.observations(1024, 100);
+        file = File.createTempFile("benchmark", "." + CsvRowEncoder.FILE_EXTENSION);
+        out = BLEDeviceLog.LOG_BACKEND_MAPPED.equals(backend)
+                ? new MappedFileOutputStream(file, MappedFileOutputStream.DEFAULT_SEGMENT_SIZE)
+                : new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        encoder.writeHeader(out);
+        lastFlush = System.nanoTime();
+        interval = 1000000000L / rate;
+        nextWrite = lastFlush;
+    }
+
+    @Setup(Level.Invocation)
+    public void pace() {
+        nextWrite += interval;
+        while (System.nanoTime() < nextWrite) {
+            // busy wait for accurate pacing, sleeping is far too coarse at these rates
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        out.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void writeRow() throws IOException {
+        encoder.writeRow(observations.get(next), out);
+        next = (next + 1) & (observations.size() - 1);
+        long now = System.nanoTime();
+        if (now - lastFlush > FLUSH_INTERVAL) {
+            out.flush();
+            lastFlush = now;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ch.miromico.miroreaderapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of log rows in the text and binary formats, without any file I/O. Writing a row is
+ * expected not to allocate, see gc.alloc.rate.norm of the GC profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogEncoderBenchmark {
+    private List<BLEDevice> observations;
+    private final CsvRowEncoder csvEncoder = new CsvRowEncoder();
+    private final BinaryLogEncoder binaryEncoder = new BinaryLogEncoder();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
+    private int next = 0;
+
+    /**
+     * Discards the encoded rows
+     */
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        observations = BenchmarkData.observations(1024, 100);
+        binaryEncoder.writeHeader(out);
+    }
+
+    private BLEDevice nextObservation() {
+        BLEDevice device = observations.get(next);
+        next = (next + 1) & (observations.size() - 1);
+        return device;
+    }
+
+    @Benchmark
+    public int csvEncode() {
+        return csvEncoder.encode(nextObservation());
+    }
+
+    @Benchmark
+    public void csvWriteRow() throws IOException {
+        csvEncoder.writeRow(nextObservation(), sink);
+    }
+
+    @Benchmark
+    public int binaryWriteRow() throws IOException {
+        if (out.size() > 512 * 1024) {
+            // keep the buffer size bounded, the binary encoder keeps its dictionary state
+            out.reset();
+        }
+        binaryEncoder.writeRow(nextObservation(), out);
+        return out.size();
+    }
+}
@@ -0,0 +1,64 @@
+package ch.miromico.miroreaderapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signal strength filtering of 1000 devices advertising at 10 Hz each, alone and as part of the
+ * device log update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RssiFilterBenchmark {
+    private static final int DEVICES = 1000;
+    private static final long INTERVAL = 100000000L;
+
+    @Param({RssiFilter.FILTER_NONE, RssiFilter.FILTER_EWMA, RssiFilter.FILTER_KALMAN})
+    public String filter;
+
+    private List<BLEDevice> observations;
+    private BLEDevice[] last;
+    private RssiFilter rssiFilter;
+    private BLEDeviceLog deviceLog;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        observations = BenchmarkData.periodicObservations(8192, DEVICES, INTERVAL);
+        last = new BLEDevice[DEVICES];
+        rssiFilter = new RssiFilter();
+        rssiFilter.setFilter(filter);
+        deviceLog = new BLEDeviceLog();
+        deviceLog.setDeviceMaxAge(10);
+        deviceLog.getRssiFilter().setFilter(filter);
+        next = 0;
+    }
+
+    @Benchmark
+    public int filterUpdate() {
+        int device = next % DEVICES;
+        BLEDevice observation = observations.get(next);
+        next = (next + 1) & (observations.size() - 1);
+
+        rssiFilter.update(last[device], observation);
+        last[device] = observation;
+        return observation.getProximity();
+    }
+
+    @Benchmark
+    public void deviceLogAdd() {
+        deviceLog.add(observations.get(next));
+        next = (next + 1) & (observations.size() - 1);
+    }
+}
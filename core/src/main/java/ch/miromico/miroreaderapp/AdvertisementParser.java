@@ -0,0 +1,378 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+/**
+ * Reusable parser for the AD structures of a BLE advertisement record.
+ * <p>
+ * The parser walks the raw record bytes in place and only exposes offsets and lengths into the
+ * original array, i.e. no data is copied and no objects are allocated while iterating. Each
+ * structure is encoded as [length][type][value], where the length byte covers type and value.
+ * Iteration stops at the first zero length byte (padding) or at a structure whose length byte
+ * points beyond the end of the record, in which case the record is flagged as malformed.
+ */
+public class AdvertisementParser {
+    /**
+     * AD type identifiers as assigned by the Bluetooth SIG
+     */
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_SHORTENED_LOCAL_NAME = 0x08;
+    public static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+    public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    public static final int TYPE_SERVICE_DATA_16 = 0x16;
+    public static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    /**
+     * Block separator used by the hex string representation
+     */
+    public static final char HEX_BLOCK_SEPARATOR = ',';
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Record currently parsed and the bounds of the region to parse
+     */
+    private byte[] record;
+    private int start;
+    private int end;
+
+    /**
+     * Offset of the next structure to parse
+     */
+    private int position;
+
+    /**
+     * Current structure, valid after a successful call to next()
+     */
+    private int type = -1;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Set if parsing stopped at a structure exceeding the record bounds
+     */
+    private boolean malformed;
+
+    /**
+     * Constructor does not take any arguments, use reset() to assign a record
+     */
+    public AdvertisementParser() {
+    }
+
+    /**
+     * Start parsing a new record
+     *
+     * @param record The raw advertisement record bytes
+     * @return This parser instance
+     */
+    public AdvertisementParser reset(byte[] record) {
+        return reset(record, 0, record == null ? 0 : record.length);
+    }
+
+    /**
+     * Start parsing a region of a record
+     *
+     * @param record The raw advertisement record bytes
+     * @param offset Offset of the first structure
+     * @param length Number of bytes to parse
+     * @return This parser instance
+     */
+    public AdvertisementParser reset(byte[] record, int offset, int length) {
+        if (record != null && (offset < 0 || length < 0 || offset + length > record.length)) {
+            throw new IndexOutOfBoundsException("region out of record bounds");
+        }
+        this.record = record;
+        this.start = offset;
+        this.end = offset + length;
+        rewind();
+        return this;
+    }
+
+    /**
+     * Restart parsing at the first structure of the current record
+     */
+    public void rewind() {
+        this.position = this.start;
+        this.type = -1;
+        this.valueOffset = 0;
+        this.valueLength = 0;
+        this.malformed = false;
+    }
+
+    /**
+     * Advance to the next AD structure
+     *
+     * @return true if a valid structure is available, false at the end of the record
+     */
+    public boolean next() {
+        if (record == null || position >= end) {
+            type = -1;
+            return false;
+        }
+
+        int length = record[position] & 0xFF;
+        // zero length -> no additional data
+        if (length == 0) {
+            position = end;
+            type = -1;
+            return false;
+        }
+        // length exceeding the record -> malformed, stop parsing
+        if (position + 1 + length > end) {
+            position = end;
+            type = -1;
+            malformed = true;
+            return false;
+        }
+
+        type = record[position + 1] & 0xFF;
+        valueOffset = position + 2;
+        valueLength = length - 1;
+        position = position + 1 + length;
+        return true;
+    }
+
+    /**
+     * Search the current record for the first structure of a given type
+     *
+     * @param adType The AD type to look for
+     * @return true if found, the structure is then available as current structure
+     */
+    public boolean find(int adType) {
+        rewind();
+        while (next()) {
+            if (type == adType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search the current record for manufacturer specific data
+     *
+     * @return true if found with at least the company identifier present
+     */
+    public boolean findManufacturerData() {
+        rewind();
+        while (next()) {
+            if (type == TYPE_MANUFACTURER_DATA && valueLength >= 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search the current record for service data of a 16-bit service UUID
+     *
+     * @param uuid16 The 16-bit service UUID, or -1 to match any service
+     * @return true if found, the structure is then available as current structure
+     */
+    public boolean findServiceData(int uuid16) {
+        rewind();
+        while (next()) {
+            if (type == TYPE_SERVICE_DATA_16 && valueLength >= 2
+                    && (uuid16 < 0 || getServiceUuid16() == uuid16)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the company identifier of the current manufacturer data structure
+     *
+     * @return The 16-bit company identifier, or -1 if not a manufacturer data structure
+     */
+    public int getCompanyId() {
+        if (type != TYPE_MANUFACTURER_DATA || valueLength < 2) {
+            return -1;
+        }
+        return (record[valueOffset] & 0xFF) | ((record[valueOffset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * Get the service UUID of the current 16-bit service data structure
+     *
+     * @return The 16-bit service UUID, or -1 if not a service data structure
+     */
+    public int getServiceUuid16() {
+        if (type != TYPE_SERVICE_DATA_16 || valueLength < 2) {
+            return -1;
+        }
+        return (record[valueOffset] & 0xFF) | ((record[valueOffset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * Offset of the payload following the 2 byte company identifier or service UUID
+     *
+     * @return Offset into the record
+     */
+    public int getPayloadOffset() {
+        return valueOffset + 2;
+    }
+
+    /**
+     * Length of the payload following the 2 byte company identifier or service UUID
+     *
+     * @return Number of payload bytes
+     */
+    public int getPayloadLength() {
+        return valueLength < 2 ? 0 : valueLength - 2;
+    }
+
+    public byte[] getRecord() {
+        return record;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    public boolean isMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Number of characters the hex string representation of a record requires
+     *
+     * @param record The raw advertisement record bytes
+     * @return Length of the string returned by toHexString()
+     */
+    public static int hexStringLength(byte[] record) {
+        return formatHex(record, null, 0);
+    }
+
+    /**
+     * Number of leading record bytes that are formatted by formatHex(), i.e. the record without
+     * the zero padding after the last AD structure
+     *
+     * @param record The raw advertisement record bytes
+     * @return Number of significant bytes
+     */
+    public static int significantLength(byte[] record) {
+        int blockEnd = 0;
+        for (int i = 0; i < record.length; i++) {
+            if (i == blockEnd) {
+                if (record[i] == 0) {
+                    return i;
+                }
+                blockEnd = i + record[i] + 1;
+            }
+        }
+        return record.length;
+    }
+
+    /**
+     * Convert a record into the hex string representation used throughout the app, i.e. two
+     * lower case hex digits per byte with AD structures separated by a comma. Formatting ends at
+     * the first zero length byte; bytes of a structure exceeding the record are still printed.
+     *
+     * @param record The raw advertisement record bytes
+     * @return The hex string
+     */
+    public static String toHexString(byte[] record) {
+        if (record == null) {
+            return null;
+        }
+        char[] chars = new char[hexStringLength(record)];
+        formatHex(record, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Write the hex string representation of a record into a character buffer
+     *
+     * @param record The raw advertisement record bytes
+     * @param out    The destination buffer, or null to only compute the length
+     * @param offset Offset into the destination buffer
+     * @return Number of characters (to be) written
+     */
+    public static int formatHex(byte[] record, char[] out, int offset) {
+        int pos = offset;
+        int blockEnd = 0;
+        for (int i = 0; i < record.length; i++) {
+            // check for another block in packet
+            if (i == blockEnd) {
+                // zero length -> no additional data
+                if (record[i] == 0) {
+                    break;
+                }
+                blockEnd = i + record[i] + 1;
+                // if not first packet add block separator
+                if (i > 0) {
+                    if (out != null) {
+                        out[pos] = HEX_BLOCK_SEPARATOR;
+                    }
+                    pos++;
+                }
+            }
+            if (out != null) {
+                int v = record[i] & 0xFF;
+                out[pos] = HEX_DIGITS[v >>> 4];
+                out[pos + 1] = HEX_DIGITS[v & 0x0F];
+            }
+            pos += 2;
+        }
+        return pos - offset;
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log file writer.
+ * <p>
+ * Devices to log are handed over through a bounded lock-free queue and written by a dedicated
+ * writer thread, so the thread delivering scan results never waits for storage. The writer
+ * drains the queue in batches and encodes the rows by the {@link LogEncoder} into a large buffer
+ * that is flushed to the file when full or at the configured flush interval. If the queue is
+ * full, rows are dropped and counted instead of blocking the caller.
+ * <p>
+ * If rotation is enabled, the log is split into numbered segment files. The writer starts a new
+ * segment once the current one reaches the max size or age, and hands the closed segment to a
+ * {@link LogSegmentArchiver} for compression in the background.
+ */
+public class AsyncLogWriter implements Runnable {
+    protected static final String TAG = "AsyncLogWriter";
+
+    /**
+     * Default number of rows the queue holds
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    /**
+     * Size of the file write buffer
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File logFile;
+    private final LogEncoder encoder;
+    private final boolean memoryMapped;
+    private final MpscRingBuffer<BLEDevice> queue;
+    private final long flushIntervalNanos;
+    private final Thread thread;
+
+    private volatile boolean running = false;
+
+    /**
+     * Current segment, owned by the writer thread after start
+     */
+    private CountingOutputStream out = null;
+    private File segmentFile = null;
+    private int segmentIndex = 0;
+    private long segmentOpenedMillis = 0;
+    private long segmentOpenedNanos = 0;
+    private long segmentRows = 0;
+    private long firstTimestamp = 0;
+    private long lastTimestamp = 0;
+
+    /**
+     * Rotation settings, no rotation if archiver is null
+     */
+    private long maxSegmentBytes = 0;
+    private long maxSegmentNanos = 0;
+    private LogSegmentArchiver archiver = null;
+
+    /**
+     * Latencies of the written rows, or null
+     */
+    private LatencyStats latencyStats = null;
+
+    /**
+     * Writer statistics
+     */
+    private final AtomicLong queuedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong maxQueueDepth = new AtomicLong(0);
+    private volatile long writtenCount = 0;
+    private volatile long writtenBytes = 0;
+    /**
+     * Bytes written to the closed segments, accessed by the writer thread only
+     */
+    private long closedSegmentBytes = 0;
+
+    /**
+     * Create a log file writer, the file is opened by start()
+     *
+     * @param logFile         The file to write the log to, the base name of segments if rotating
+     * @param encoder         The encoder of the log file format
+     * @param memoryMapped    Write through memory mapped file segments instead of a file stream
+     * @param queueCapacity   Number of rows the queue holds before dropping
+     * @param flushIntervalMs Max time in milliseconds before buffered rows are written to file
+     */
+    public AsyncLogWriter(File logFile, LogEncoder encoder, boolean memoryMapped, int queueCapacity,
+                          int flushIntervalMs) {
+        this.logFile = logFile;
+        this.encoder = encoder;
+        this.memoryMapped = memoryMapped;
+        this.queue = new MpscRingBuffer<>(queueCapacity);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushIntervalMs, 1));
+        this.thread = new Thread(this, TAG);
+    }
+
+    /**
+     * Split the log into segments of limited size and age, must be called before start()
+     *
+     * @param maxSegmentBytes  Max segment file size in bytes, 0 for no limit
+     * @param maxSegmentMillis Max time in milliseconds a segment is written to, 0 for no limit
+     * @param compress         Whether to compress closed segments
+     */
+    public void setRotation(long maxSegmentBytes, long maxSegmentMillis, boolean compress) {
+        if (maxSegmentBytes <= 0 && maxSegmentMillis <= 0) {
+            archiver = null;
+            return;
+        }
+        this.maxSegmentBytes = maxSegmentBytes > 0 ? maxSegmentBytes : Long.MAX_VALUE;
+        this.maxSegmentNanos = maxSegmentMillis > 0
+                ? TimeUnit.MILLISECONDS.toNanos(maxSegmentMillis) : Long.MAX_VALUE;
+        this.archiver = new LogSegmentArchiver(manifestFile(logFile), compress);
+    }
+
+    /**
+     * Record the latency of each row written, must be called before start()
+     *
+     * @param stats The latency statistics, or null
+     */
+    public void setLatencyStats(LatencyStats stats) {
+        this.latencyStats = stats;
+    }
+
+    /**
+     * Open the log file and start the writer thread
+     *
+     * @throws IOException If the file cannot be opened
+     */
+    public void start() throws IOException {
+        openSegment();
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Queue a device observation for writing, never blocks
+     *
+     * @param device The device to log
+     * @return true if queued, false if dropped
+     */
+    public boolean offer(BLEDevice device) {
+        if (!running) {
+            return false;
+        }
+        if (!queue.offer(device)) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        queuedCount.incrementAndGet();
+        checkQueueDepth();
+        return true;
+    }
+
+    /**
+     * Queue a batch of device observations for writing, never blocks
+     *
+     * @param devices The devices to log
+     * @return Number of devices queued, the others are dropped
+     */
+    public int offerAll(List<BLEDevice> devices) {
+        if (!running) {
+            return 0;
+        }
+        int queued = 0;
+        int n = devices.size();
+        for (int i = 0; i < n; i++) {
+            if (queue.offer(devices.get(i))) {
+                queued++;
+            }
+        }
+        queuedCount.addAndGet(queued);
+        if (queued < n) {
+            droppedCount.addAndGet(n - queued);
+        }
+        checkQueueDepth();
+        return queued;
+    }
+
+    /**
+     * Stop the writer thread after writing all queued rows and close the file
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            CoreLog.e(TAG, "Interrupted while closing log file");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastFlush = System.nanoTime();
+        boolean pending = false;
+
+        while (true) {
+            // drain all queued rows into the write buffer
+            boolean stopping = !running;
+            long written = 0;
+            BLEDevice device;
+            while ((device = queue.poll()) != null) {
+                // start a new segment before the row if the current one is full
+                if (archiver != null && out != null && out.getCount() >= maxSegmentBytes) {
+                    rotate();
+                }
+                writeLog(device);
+                written++;
+            }
+            if (written > 0) {
+                writtenCount += written;
+                writtenBytes = closedSegmentBytes + (out != null ? out.getCount() : 0);
+                pending = true;
+            }
+
+            // start a new segment when the current one is too old
+            long now = System.nanoTime();
+            if (archiver != null && !stopping && out != null && segmentRows > 0
+                    && now - segmentOpenedNanos >= maxSegmentNanos) {
+                rotate();
+                lastFlush = now;
+                pending = false;
+            }
+
+            // flush buffered rows on interval and before closing
+            if (stopping || (pending && now - lastFlush >= flushIntervalNanos)) {
+                flush();
+                lastFlush = now;
+                pending = false;
+            }
+            if (stopping) {
+                break;
+            }
+
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+
+        closeSegment();
+        if (archiver != null) {
+            archiver.shutdown();
+        }
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Get the archiver of closed segments
+     *
+     * @return The archiver, or null if not rotating
+     */
+    LogSegmentArchiver getArchiver() {
+        return archiver;
+    }
+
+    /**
+     * Number of rows accepted into the queue
+     */
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * Number of rows written to the file buffer
+     */
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Number of bytes written to the file buffer, including the file headers
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * Number of rows dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Highest number of rows waiting in the queue
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Number of rows currently waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "queued " + getQueuedCount() + ", written " + getWrittenCount()
+                + ", dropped " + getDroppedCount() + ", max queue depth " + getMaxQueueDepth();
+    }
+
+    /**
+     * Get the manifest file of a rotated log
+     *
+     * @param logFile The log file name
+     * @return The manifest file, e.g. "name_manifest.csv" for "name.bin"
+     */
+    public static File manifestFile(File logFile) {
+        return new File(logFile.getParentFile(), baseName(logFile) + "_manifest.csv");
+    }
+
+    /**
+     * Get the file of a log segment
+     *
+     * @param logFile The log file name
+     * @param index   The segment index
+     * @return The segment file, e.g. "name_002.bin" for "name.bin"
+     */
+    public static File segmentFile(File logFile, int index) {
+        String name = logFile.getName();
+        int dot = name.lastIndexOf('.');
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(logFile.getParentFile(),
+                baseName(logFile) + "_" + String.format(Locale.US, "%03d", index) + extension);
+    }
+
+    private static String baseName(File logFile) {
+        String name = logFile.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private void openSegment() throws IOException {
+        segmentFile = archiver != null ? segmentFile(logFile, segmentIndex) : logFile;
+        OutputStream stream;
+        if (memoryMapped) {
+            stream = new MappedFileOutputStream(segmentFile, MappedFileOutputStream.DEFAULT_SEGMENT_SIZE);
+        } else {
+            stream = new BufferedOutputStream(new FileOutputStream(segmentFile), WRITE_BUFFER_SIZE);
+        }
+        out = new CountingOutputStream(stream);
+        segmentOpenedMillis = System.currentTimeMillis();
+        segmentOpenedNanos = System.nanoTime();
+        // empty segments are archived with an empty time range of 0
+        segmentRows = 0;
+        firstTimestamp = 0;
+        lastTimestamp = 0;
+        writeHeader();
+        CoreLog.i(TAG, "Opened log file: " + segmentFile.toString());
+    }
+
+    private void closeSegment() {
+        if (out == null) {
+            return;
+        }
+        closedSegmentBytes += out.getCount();
+        try {
+            out.close();
+            CoreLog.i(TAG, "Closed log file: " + segmentFile.toString());
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error closing output file: " + e.getMessage());
+        }
+        if (archiver != null) {
+            archiver.archive(segmentFile, segmentOpenedMillis, System.currentTimeMillis(),
+                    firstTimestamp, lastTimestamp, segmentRows);
+        }
+        out = null;
+    }
+
+    private void rotate() {
+        closeSegment();
+        segmentIndex++;
+        tryOpenSegment();
+    }
+
+    private boolean tryOpenSegment() {
+        try {
+            openSegment();
+            return true;
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error opening output file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void checkQueueDepth() {
+        // track queue depth and wake up writer early if filling up
+        long depth = queue.size();
+        long max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+        if (depth > queue.capacity() / 2) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error writing output file: " + e.getMessage());
+        }
+    }
+
+    private void writeHeader() {
+        try {
+            encoder.writeHeader(out);
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error writing output file: " + e.getMessage());
+        }
+    }
+
+    private void writeLog(BLEDevice device) {
+        // retry opening the next segment after a failed rotation, drop the row meanwhile
+        if (out == null && !tryOpenSegment()) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if (segmentRows == 0) {
+            firstTimestamp = device.getTimestamp();
+        }
+        lastTimestamp = device.getTimestamp();
+        segmentRows++;
+        try {
+            encoder.writeRow(device, out);
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error writing output file: " + e.getMessage());
+        }
+        if (latencyStats != null) {
+            latencyStats.record(LatencyStats.STAGE_LOG_WRITE, device.getTimestamp());
+        }
+    }
+
+    /**
+     * Output stream counting the bytes written
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
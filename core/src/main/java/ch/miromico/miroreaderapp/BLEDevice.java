@@ -0,0 +1,269 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.util.Arrays;
+
+public class BLEDevice {
+    protected static final String TAG = "BLEDevice";
+
+    protected final int DATA_SIZE = 14;
+    protected String name;
+    protected String address;
+    protected long addressKey = MacAddress.INVALID;
+    protected String data;
+    protected byte[] data_raw;
+    protected MiroCardSample sample = MiroCardSample.NONE;
+    protected long timestamp = 0;
+    protected int rssi = 999;
+    protected int payloadVersion = 0;
+    protected int receivedCount = 0;
+    protected long advertisingInterval = 0;
+    protected float smoothedRssi = 0;
+    protected float rssiVariance = 0;
+    protected int proximity = RssiFilter.PROXIMITY_UNKNOWN;
+    protected DeviceProfile profile = null;
+
+
+    public BLEDevice(BLEDevice device) {
+        this.name = device.name;
+        this.address = device.address;
+        this.addressKey = device.addressKey;
+        this.data = device.data;
+        this.data_raw = device.data_raw;
+        this.sample = device.sample;
+        this.timestamp = device.timestamp;
+        this.rssi = device.rssi;
+        this.payloadVersion = device.payloadVersion;
+        this.receivedCount = device.receivedCount;
+        this.advertisingInterval = device.advertisingInterval;
+        this.smoothedRssi = device.smoothedRssi;
+        this.rssiVariance = device.rssiVariance;
+        this.proximity = device.proximity;
+        this.profile = device.profile;
+    }
+
+    public BLEDevice(String name, String address, String data) {
+        this.name = name;
+        this.address = address;
+        this.addressKey = MacAddress.parse(address);
+        this.data = data;
+    }
+
+    /**
+     * Create a device observation from a received advertisement
+     *
+     * @param name      The device name, or null
+     * @param address   The MAC address
+     * @param timestamp The reception time, see {@link System#nanoTime()}
+     * @param rssi      The received signal strength
+     * @param record    The raw advertisement record
+     */
+    public BLEDevice(String name, String address, long timestamp, int rssi, byte[] record) {
+        this.name = name;
+        this.address = address;
+        this.addressKey = MacAddress.parse(this.address);
+        this.timestamp = timestamp;
+        this.rssi = rssi;
+        this.data_raw = record;
+        // hex data string is generated on demand only, see getData()
+        this.data = null;
+        // decode sensor data once at reception
+        this.sample = MiroCardDecoder.decode(this.data_raw);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the device address packed into a long, see {@link MacAddress}
+     *
+     * @return The 48-bit address, or MacAddress.INVALID
+     */
+    public long getAddressKey() {
+        return addressKey;
+    }
+
+    public String getData() {
+        // format raw data once when first requested
+        if (data == null && data_raw != null) {
+            data = AdvertisementParser.toHexString(data_raw);
+        }
+        return data;
+    }
+
+    /**
+     * Get the raw advertisement record as received (not copied, do not modify)
+     *
+     * @return The raw record bytes
+     */
+    public byte[] getRecord() {
+        return data_raw;
+    }
+
+    public byte[] getDataRaw() {
+        // Header: 3bytes + Timestamp: 4 bytes + MSGTYPE: 1 bytes
+        if (data_raw.length < 9) {
+            return null;
+        }
+        byte[] data_block = new byte[DATA_SIZE];
+        for (int i = 0; i < data_block.length; i++) {
+            data_block[i] = this.data_raw[3 + i];
+        }
+        return data_block;
+    }
+
+    /**
+     * Get the sensor data decoded at reception
+     *
+     * @return The decoded sample, never null
+     */
+    public MiroCardSample getSample() {
+        return sample;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Get the signal strength filtered over the observations of the device, see
+     * {@link RssiFilter}
+     *
+     * @return The smoothed RSSI, or the raw RSSI if the device was not filtered
+     */
+    public float getSmoothedRssi() {
+        return proximity != RssiFilter.PROXIMITY_UNKNOWN ? smoothedRssi : rssi;
+    }
+
+    /**
+     * Get the variance of the signal strength, of the measurements for the moving average and of
+     * the estimate for the Kalman filter
+     *
+     * @return The variance [dB^2]
+     */
+    public float getRssiVariance() {
+        return rssiVariance;
+    }
+
+    /**
+     * Get the proximity band estimated from the smoothed signal strength
+     *
+     * @return The band, see {@link RssiFilter}
+     */
+    public int getProximity() {
+        return proximity;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the profile of a personal card, assigned by {@link BLEDeviceLog} from the
+     * {@link DeviceProfileRegistry}
+     *
+     * @return The profile, or null if the device has none
+     */
+    public DeviceProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Get the version of the advertisement payload, which is unchanged as long as consecutive
+     * observations of the device have the same payload bytes and name. Versions are assigned by
+     * {@link BLEDeviceLog} and unique among all devices.
+     *
+     * @return The payload version
+     */
+    public int getPayloadVersion() {
+        return payloadVersion;
+    }
+
+    /**
+     * Get the number of observations of the device since it was added to the device list,
+     * counted by {@link BLEDeviceLog}
+     *
+     * @return The observation count including this one
+     */
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Get the advertising interval of the device, estimated by {@link BLEDeviceLog} as moving
+     * average of the times between its observations
+     *
+     * @return The interval in nanoseconds, 0 if not yet known
+     */
+    public long getAdvertisingInterval() {
+        return advertisingInterval;
+    }
+
+    /**
+     * Check whether another observation has the same payload bytes and name
+     *
+     * @param device The other observation
+     * @return true if only reception parameters, e.g. RSSI and timestamp, differ
+     */
+    public boolean hasSamePayload(BLEDevice device) {
+        return Arrays.equals(data_raw, device.data_raw)
+                && (name == null ? device.name == null : name.equals(device.name))
+                && (data_raw != null || (data == null ? device.data == null : data.equals(device.data)));
+    }
+}
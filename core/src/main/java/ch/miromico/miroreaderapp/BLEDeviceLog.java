@@ -0,0 +1,666 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Log of the received BLE devices, keeps the table of active devices and writes the log file.
+ * <p>
+ * All methods are called by the scanner's ingest thread, except for reading the published
+ * snapshots. Changes of the device table are collected and published by publishSnapshot() as
+ * immutable, versioned {@link DeviceSnapshot}, which any thread can read without locking.
+ */
+public class BLEDeviceLog {
+    protected static final String TAG = "BLEDeviceLog";
+
+    /**
+     * Device expiry timer wheel resolution and size (~25 s per revolution)
+     */
+    private static final long EXPIRY_TICK_NANOS = 100000000L;
+    private static final int EXPIRY_WHEEL_SIZE = 256;
+
+    /**
+     * Weight of a new inter-arrival time in the advertising interval estimate, 1 / 2^shift
+     */
+    private static final int INTERVAL_EWMA_SHIFT = 3;
+    /**
+     * Observations needed before the interval estimate is used for the expiry
+     */
+    private static final int INTERVAL_MIN_OBSERVATIONS = 4;
+
+    static final char CSV_DELIMITER = ';';
+
+    /**
+     * Default interval for writing buffered log rows to file
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     * Log file formats, named by their file extension
+     */
+    public static final String LOG_FORMAT_CSV = CsvRowEncoder.FILE_EXTENSION;
+    public static final String LOG_FORMAT_BINARY = BinaryLogEncoder.FILE_EXTENSION;
+
+    /**
+     * Log file backends
+     */
+    public static final String LOG_BACKEND_STREAM = "stream";
+    public static final String LOG_BACKEND_MAPPED = "mapped";
+
+    private BLEDeviceTable devices = new BLEDeviceTable();
+
+    /**
+     * Display order and filter of the published device list
+     */
+    private SortedDeviceIndex sortedDevices = new SortedDeviceIndex();
+    private String deviceFilter = "";
+
+    private ExpiryWheel expiryWheel = new ExpiryWheel(EXPIRY_TICK_NANOS, EXPIRY_WHEEL_SIZE, 64);
+
+    /**
+     * Signal strength filter, its state is carried over between the observations of a device
+     */
+    private final RssiFilter rssiFilter = new RssiFilter();
+
+    private DeviceListener deviceListener = null;
+
+    /**
+     * Latest published device list and whether the table changed since
+     */
+    private final AtomicReference<DeviceSnapshot> snapshot = new AtomicReference<>(DeviceSnapshot.EMPTY);
+    private long snapshotVersion = 0;
+    private boolean changed = false;
+
+    /**
+     * Total device events, published with the snapshots
+     */
+    private long addedCount = 0;
+    private long updatedCount = 0;
+    private long removedCount = 0;
+
+    /**
+     * Observations without valid address, logged to file but not listed, since they cannot be
+     * told apart
+     */
+    private volatile long invalidAddressCount = 0;
+
+    /**
+     * Last payload version assigned, unique among all devices
+     */
+    private int payloadVersion = 0;
+
+    /**
+     * Profiles of the personal cards, assigned to the devices at ingest
+     */
+    private DeviceProfileRegistry profileRegistry = DeviceProfileRegistry.EMPTY;
+
+    /**
+     * Latencies of the table updates and snapshot publications, or null. Reception times of the
+     * observations not yet published are kept in a reused array.
+     */
+    private LatencyStats latencyStats = null;
+    private long[] unpublishedTimestamps = new long[64];
+    private int unpublishedCount = 0;
+
+    /**
+     * Removes expired devices from the device table
+     */
+    private ExpiryWheel.Callback expiryCallback = new ExpiryWheel.Callback() {
+        @Override
+        public void onExpired(int slot) {
+            BLEDevice d = devices.removeSlot(slot);
+            sortedDevices.remove(d);
+            changed = true;
+            removedCount++;
+            if (CoreLog.isLoggable(TAG, CoreLog.DEBUG)) {
+                CoreLog.d(TAG, "drop device: " + d.getAddress());
+            }
+
+            if (deviceListener != null) {
+                deviceListener.onDeviceExpired(d);
+            }
+        }
+    };
+
+    private ArrayList<BLEDevice> deviceHistory = new ArrayList<>();
+
+    private long deviceMaxAge = 50000000000L;
+
+    /**
+     * Adaptive expiry after a number of missed advertising intervals, bounded below by a min age
+     * and above by the max age. Disabled if the number of intervals is 0.
+     */
+    private int expiryIntervals = 0;
+    private long expiryMinAge = 1000000000L;
+
+    private volatile AsyncLogWriter logWriter = null;
+
+    private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    private String logFormat = LOG_FORMAT_CSV;
+
+    private String logBackend = LOG_BACKEND_STREAM;
+
+    private boolean logsRecovered = false;
+
+    private long rotationSize = 0;
+
+    private long rotationTime = 0;
+
+    private boolean rotationCompress = true;
+
+    /**
+     * Constructor does not take any arguments
+     */
+    public BLEDeviceLog() {
+    }
+
+    /**
+     * Add a new BLE device observed
+     *
+     * @param bleDevice
+     */
+    public void add(BLEDevice bleDevice) {
+//        deviceHistory.add(bleDevice);
+
+        if (logWriter != null) {
+            logWriter.offer(bleDevice);
+        }
+
+        updateDeviceList(bleDevice);
+    }
+
+    /**
+     * Add a batch of BLE devices received together, in order of reception
+     *
+     * @param bleDevices The received BLE devices
+     */
+    public void addAll(List<BLEDevice> bleDevices) {
+        if (logWriter != null) {
+            logWriter.offerAll(bleDevices);
+        }
+
+        for (int i = 0; i < bleDevices.size(); i++) {
+            putDevice(bleDevices.get(i));
+        }
+
+        // drop old devices once per batch
+        cleanupDeviceList();
+    }
+
+    /**
+     * Clear the log
+     */
+    public void clear() {
+        this.removedCount += this.devices.size();
+        this.devices.clear();
+        this.sortedDevices.clear();
+        this.changed = true;
+        this.expiryWheel.clear();
+        this.deviceHistory.clear();
+    }
+
+    /**
+     * Enable/Disable logging to file
+     *
+     * @param filename The file to write the log to
+     */
+    public void enableFileLogging(File filename) {
+        if (logWriter != null) {
+            CoreLog.e(TAG, "Error setting filename: still logging");
+            return;
+        }
+
+        // find log files left unfinished by a crash, before any file of this process is open
+        List<File> unfinished = Collections.emptyList();
+        if (!logsRecovered && filename.getParentFile() != null) {
+            unfinished = LogRecovery.findUnfinished(filename.getParentFile());
+        }
+
+        LogEncoder encoder = LOG_FORMAT_BINARY.equals(logFormat)
+                ? new BinaryLogEncoder() : new CsvRowEncoder();
+        boolean memoryMapped = LOG_BACKEND_MAPPED.equals(logBackend);
+        AsyncLogWriter writer = new AsyncLogWriter(filename, encoder, memoryMapped,
+                AsyncLogWriter.DEFAULT_QUEUE_CAPACITY, flushInterval);
+        writer.setRotation(rotationSize, rotationTime, rotationCompress);
+        writer.setLatencyStats(latencyStats);
+        try {
+            writer.start();
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error opening output file: " + e.getMessage());
+            return;
+        }
+        logWriter = writer;
+
+        // repairing takes long for large files, keep it off the calling ingest thread
+        logsRecovered = true;
+        if (!unfinished.isEmpty()) {
+            if (writer.getArchiver() != null) {
+                writer.getArchiver().recover(unfinished);
+            } else {
+                LogRecovery.recoverInBackground(unfinished);
+            }
+        }
+    }
+
+    public void disableFileLogging() {
+        // disable if running, writes all queued rows before closing
+        if (logWriter != null) {
+            logWriter.close();
+            CoreLog.i(TAG, "Log writer statistics: " + logWriter.toString());
+            logWriter = null;
+        }
+    }
+
+    /**
+     * Set the max time buffered rows are kept before writing them to the file. Applies to log
+     * files opened afterwards.
+     *
+     * @param milliseconds The flush interval in milliseconds
+     */
+    public void setFlushInterval(int milliseconds) {
+        this.flushInterval = milliseconds;
+    }
+
+    /**
+     * Set the format of the log file. Applies to log files opened afterwards.
+     *
+     * @param format LOG_FORMAT_CSV or LOG_FORMAT_BINARY
+     */
+    public void setLogFormat(String format) {
+        this.logFormat = format;
+    }
+
+    /**
+     * Set how the log file is written. Applies to log files opened afterwards.
+     *
+     * @param backend LOG_BACKEND_STREAM or LOG_BACKEND_MAPPED
+     */
+    public void setLogBackend(String backend) {
+        this.logBackend = backend;
+    }
+
+    /**
+     * Set the rotation of log files into segments. Applies to log files opened afterwards.
+     *
+     * @param maxSize     Max segment size in bytes, 0 for no limit
+     * @param maxDuration Max segment duration in milliseconds, 0 for no limit
+     * @param compress    Whether closed segments are compressed
+     */
+    public void setLogRotation(long maxSize, long maxDuration, boolean compress) {
+        this.rotationSize = maxSize;
+        this.rotationTime = maxDuration;
+        this.rotationCompress = compress;
+    }
+
+    /**
+     * Get the number of observations not listed because their address is not a valid MAC
+     * address, e.g. "NA" in replayed logs. They are still written to the log file. Can be read
+     * from any thread.
+     *
+     * @return The total count
+     */
+    public long getInvalidAddressCount() {
+        return invalidAddressCount;
+    }
+
+    /**
+     * Get the signal strength filter applied to new observations, to configure it on the ingest
+     * thread
+     *
+     * @return The filter
+     */
+    public RssiFilter getRssiFilter() {
+        return rssiFilter;
+    }
+
+    /**
+     * Get the active log file writer, e.g. to read its statistics
+     *
+     * @return The log writer, or null if not logging to file
+     */
+    public AsyncLogWriter getLogWriter() {
+        return logWriter;
+    }
+
+    /**
+     * Set the max age of devices before removing them from the list. Can be changed while
+     * scanning, the expiry of all listed devices is rescheduled accordingly.
+     *
+     * @param seconds Max device age in seconds, 0 to keep devices forever
+     */
+    public void setDeviceMaxAge(int seconds) {
+        this.deviceMaxAge = (long) 1e9 * (long) seconds;
+        rescheduleExpiry();
+    }
+
+    /**
+     * Expire devices after missing a number of their advertisements instead of the fixed max
+     * age, so frequently advertising devices leave the list soon after they are gone while slow
+     * ones do not flicker. The interval of each device is estimated from its observations, the max
+     * age stays the upper bound. Can be changed while scanning.
+     *
+     * @param missedIntervals Number of missed advertising intervals, 0 to use the max age only
+     * @param minAgeMillis    Min device age in milliseconds, e.g. to cover the scan report delay
+     */
+    public void setAdaptiveExpiry(int missedIntervals, long minAgeMillis) {
+        this.expiryIntervals = missedIntervals;
+        this.expiryMinAge = minAgeMillis * 1000000L;
+        rescheduleExpiry();
+    }
+
+    private void rescheduleExpiry() {
+        for (int slot = devices.first(); slot != BLEDeviceTable.NONE; slot = devices.next(slot)) {
+            scheduleExpiry(slot, devices.deviceAt(slot));
+        }
+    }
+
+    /**
+     * Set the listener notified about device list changes
+     *
+     * @param listener The listener, or null to remove
+     */
+    public void setDeviceListener(DeviceListener listener) {
+        this.deviceListener = listener;
+    }
+
+    /**
+     * Get the full history of devices
+     *
+     * @return List of all devices observations
+     */
+    public ArrayList<BLEDevice> getDeviceHistory() {
+        return this.deviceHistory;
+    }
+
+    /**
+     * Get the list of available devices, can be called from any thread
+     *
+     * @return Unmodifiable list of the unique devices in display order, as of the
+     * last published snapshot
+     */
+    public List<BLEDevice> getDeviceList() {
+        return snapshot.get().getDevices();
+    }
+
+    /**
+     * Set the profiles assigned to the devices. Applies to devices added to the list afterwards.
+     *
+     * @param registry The profile registry
+     */
+    public void setProfileRegistry(DeviceProfileRegistry registry) {
+        this.profileRegistry = registry;
+    }
+
+    /**
+     * Measure the latencies of the processing stages, applies to log files enabled afterwards
+     *
+     * @param stats The latency statistics, or null to disable
+     */
+    public void setLatencyStats(LatencyStats stats) {
+        this.latencyStats = stats;
+        unpublishedCount = 0;
+    }
+
+    /**
+     * Get the latest published snapshot of the devices, can be called from any thread
+     *
+     * @return The snapshot, never null
+     */
+    public DeviceSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Publish a new snapshot if the device table changed since the last one
+     *
+     * @return true if a new snapshot was published
+     */
+    public boolean publishSnapshot() {
+        if (!changed) {
+            return false;
+        }
+        changed = false;
+        snapshotVersion++;
+        ArrayList<BLEDevice> view = viewList();
+        // the filtered view lacks devices, copy the full table for readers of all devices
+        ArrayList<BLEDevice> all = deviceFilter.isEmpty() ? view : devices.snapshot();
+        snapshot.set(new DeviceSnapshot(snapshotVersion, view, all, addedCount, updatedCount, removedCount));
+
+        if (latencyStats != null) {
+            for (int i = 0; i < unpublishedCount; i++) {
+                latencyStats.record(LatencyStats.STAGE_SNAPSHOT_PUBLISH, unpublishedTimestamps[i]);
+            }
+            unpublishedCount = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Set the order of the published device list, see {@link SortedDeviceIndex}
+     *
+     * @param order The display order
+     */
+    public void setDeviceOrder(String order) {
+        if (!order.equals(sortedDevices.getOrder())) {
+            sortedDevices.setOrder(order, devices.snapshot());
+            changed = true;
+        }
+    }
+
+    /**
+     * Filter the published device list by MAC address or name prefix, ignoring case
+     *
+     * @param prefix The prefix, empty to publish all devices
+     */
+    public void setDeviceFilter(String prefix) {
+        prefix = prefix != null ? prefix.trim() : "";
+        if (!prefix.equals(deviceFilter)) {
+            deviceFilter = prefix;
+            changed = true;
+        }
+    }
+
+    /**
+     * Build the device list in display order with the filter applied
+     */
+    private ArrayList<BLEDevice> viewList() {
+        if (!sortedDevices.isEnabled() && deviceFilter.isEmpty()) {
+            return devices.snapshot();
+        }
+
+        ArrayList<BLEDevice> list = new ArrayList<>();
+        if (sortedDevices.isEnabled()) {
+            for (int i = 0; i < sortedDevices.size(); i++) {
+                addFiltered(list, sortedDevices.get(i));
+            }
+        } else {
+            for (int slot = devices.first(); slot != BLEDeviceTable.NONE; slot = devices.next(slot)) {
+                addFiltered(list, devices.deviceAt(slot));
+            }
+        }
+        return list;
+    }
+
+    private void addFiltered(ArrayList<BLEDevice> list, BLEDevice device) {
+        if (deviceFilter.isEmpty() || startsWith(device.getAddress(), deviceFilter) || startsWith(device.getName(), deviceFilter)) {
+            list.add(device);
+        }
+    }
+
+    private static boolean startsWith(String text, String prefix) {
+        return text != null && text.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * Drop the devices exceeding the max age, call periodically if no devices are received
+     *
+     * @return Number of devices dropped
+     */
+    public int expireDevices() {
+        return cleanupDeviceList();
+    }
+
+    private int cleanupDeviceList() {
+        // drop devices with expired max age
+        return expiryWheel.advance(System.nanoTime(), expiryCallback);
+    }
+
+    private void scheduleExpiry(int slot, BLEDevice device) {
+        // devices without reception time or max age never expire
+        if (device.getTimestamp() > 0 && this.deviceMaxAge > 0) {
+            long age = this.deviceMaxAge;
+            if (expiryIntervals > 0 && device.advertisingInterval > 0
+                    && device.receivedCount >= INTERVAL_MIN_OBSERVATIONS) {
+                long expected = Math.max(expiryIntervals * device.advertisingInterval, expiryMinAge);
+                age = Math.min(age, expected);
+            }
+            expiryWheel.schedule(slot, device.getTimestamp() + age);
+        } else {
+            expiryWheel.cancel(slot);
+        }
+    }
+
+    private void updateDeviceList(BLEDevice bleDevice) {
+        putDevice(bleDevice);
+
+        // drop old devices
+        cleanupDeviceList();
+    }
+
+    private void putDevice(BLEDevice bleDevice) {
+        // all unparsable addresses share the same key, do not merge them into one device
+        if (bleDevice.getAddressKey() == MacAddress.INVALID) {
+            invalidAddressCount++;
+            return;
+        }
+
+        // keep the payload version if only the reception parameters changed
+        int previous = devices.find(bleDevice.getAddressKey());
+        BLEDevice last = previous != BLEDeviceTable.NONE ? devices.deviceAt(previous) : null;
+        if (last != null && bleDevice.hasSamePayload(last)) {
+            bleDevice.payloadVersion = last.payloadVersion;
+        } else {
+            bleDevice.payloadVersion = ++payloadVersion;
+        }
+
+        bleDevice.receivedCount = last != null ? last.receivedCount + 1 : 1;
+        bleDevice.advertisingInterval = last != null ? estimateInterval(last, bleDevice.getTimestamp()) : 0;
+        rssiFilter.update(last, bleDevice);
+
+        // look up the profile once per device, later observations take it over
+        bleDevice.profile = last != null ? last.profile : profileRegistry.get(bleDevice.getAddressKey());
+
+        // replace existing device entry, identified by address, or add as new device
+        int size = devices.size();
+        int slot = devices.put(bleDevice);
+        sortedDevices.update(last, bleDevice);
+        changed = true;
+        if (devices.size() > size) {
+            if (CoreLog.isLoggable(TAG, CoreLog.DEBUG)) {
+                CoreLog.d(TAG, "new device: " + bleDevice.getAddress());
+            }
+            addedCount++;
+        } else {
+            updatedCount++;
+        }
+        scheduleExpiry(slot, bleDevice);
+
+        if (latencyStats != null) {
+            latencyStats.record(LatencyStats.STAGE_TABLE_UPDATE, bleDevice.getTimestamp());
+            if (unpublishedCount == unpublishedTimestamps.length) {
+                unpublishedTimestamps = Arrays.copyOf(unpublishedTimestamps, 2 * unpublishedCount);
+            }
+            unpublishedTimestamps[unpublishedCount++] = bleDevice.getTimestamp();
+        }
+    }
+
+    /**
+     * Update the advertising interval estimate of a device with a new observation
+     *
+     * @param last      The previous observation of the device
+     * @param timestamp The reception time of the new observation
+     * @return The updated estimate, 0 if unknown
+     */
+    static long estimateInterval(BLEDevice last, long timestamp) {
+        long interval = last.advertisingInterval;
+        long elapsed = timestamp - last.getTimestamp();
+        // ignore observations without or with out of order reception time, e.g. within batches
+        if (last.getTimestamp() <= 0 || elapsed <= 0) {
+            return interval;
+        }
+        if (interval == 0) {
+            return elapsed;
+        }
+        return interval + ((elapsed - interval) >> INTERVAL_EWMA_SHIFT);
+    }
+
+    /**
+     * Listener interface for device list changes
+     */
+    public interface DeviceListener {
+        /**
+         * Called when a device is removed from the list after reaching the max age
+         *
+         * @param device The last observation of the removed device
+         */
+        void onDeviceExpired(BLEDevice device);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table of the latest observation of each BLE device, keyed by the 48-bit MAC address.
+ * <p>
+ * Devices are stored in entry slots that remain stable as long as the device is in the table.
+ * A primitive hash index maps the address to the slot for O(1) insert, replace and removal, and
+ * the slots are linked in insertion order so ordered snapshots can be taken without sorting.
+ * Not thread safe.
+ */
+public class BLEDeviceTable {
+    /**
+     * Slot value marking the end of a slot list
+     */
+    public static final int NONE = -1;
+
+    private final LongIntHashMap index;
+
+    private BLEDevice[] devices;
+    private long[] keys;
+    private int[] prev;
+    private int[] next;
+
+    private int head = NONE;
+    private int tail = NONE;
+    private int free = NONE;
+    private int used = 0;
+    private int size = 0;
+
+    /**
+     * Create a table with a default initial capacity
+     */
+    public BLEDeviceTable() {
+        this(64);
+    }
+
+    /**
+     * Create a table able to hold a number of devices without growing
+     *
+     * @param capacity Number of devices expected
+     */
+    public BLEDeviceTable(int capacity) {
+        capacity = Math.max(capacity, 4);
+        index = new LongIntHashMap(capacity);
+        devices = new BLEDevice[capacity];
+        keys = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+    }
+
+    /**
+     * Insert a device or replace the existing entry with the same address. A replaced device
+     * keeps its position in the insertion order.
+     *
+     * @param device The latest device observation
+     * @return The slot of the device entry
+     */
+    public int put(BLEDevice device) {
+        long key = device.getAddressKey();
+        int slot = index.get(key);
+        if (slot != LongIntHashMap.MISSING) {
+            devices[slot] = device;
+            return slot;
+        }
+
+        slot = allocateSlot();
+        devices[slot] = device;
+        keys[slot] = key;
+
+        // append to insertion order
+        prev[slot] = tail;
+        next[slot] = NONE;
+        if (tail != NONE) {
+            next[tail] = slot;
+        } else {
+            head = slot;
+        }
+        tail = slot;
+
+        index.put(key, slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Get the slot of a device
+     *
+     * @param key The 48-bit device address
+     * @return The slot, or NONE if not in the table
+     */
+    public int find(long key) {
+        int slot = index.get(key);
+        return slot == LongIntHashMap.MISSING ? NONE : slot;
+    }
+
+    /**
+     * Get the latest observation of a device
+     *
+     * @param key The 48-bit device address
+     * @return The device, or null if not in the table
+     */
+    public BLEDevice get(long key) {
+        int slot = index.get(key);
+        return slot == LongIntHashMap.MISSING ? null : devices[slot];
+    }
+
+    /**
+     * Remove a device from the table
+     *
+     * @param key The 48-bit device address
+     * @return The removed device, or null if not in the table
+     */
+    public BLEDevice remove(long key) {
+        int slot = index.get(key);
+        if (slot == LongIntHashMap.MISSING) {
+            return null;
+        }
+        return removeSlot(slot);
+    }
+
+    /**
+     * Remove the device of a slot from the table
+     *
+     * @param slot The slot of the device entry
+     * @return The removed device
+     */
+    public BLEDevice removeSlot(int slot) {
+        BLEDevice device = devices[slot];
+        index.remove(keys[slot]);
+
+        // unlink from insertion order
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+
+        // release slot
+        devices[slot] = null;
+        next[slot] = free;
+        free = slot;
+        size--;
+        return device;
+    }
+
+    /**
+     * Get the first slot in insertion order
+     *
+     * @return The slot, or NONE if the table is empty
+     */
+    public int first() {
+        return head;
+    }
+
+    /**
+     * Get the following slot in insertion order
+     *
+     * @param slot The current slot
+     * @return The next slot, or NONE at the end
+     */
+    public int next(int slot) {
+        return next[slot];
+    }
+
+    public BLEDevice deviceAt(int slot) {
+        return devices[slot];
+    }
+
+    /**
+     * Number of slots allocated so far, all slots are smaller than this value
+     *
+     * @return The slot capacity in use
+     */
+    public int slotLimit() {
+        return used;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        index.clear();
+        Arrays.fill(devices, null);
+        head = NONE;
+        tail = NONE;
+        free = NONE;
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Copy the devices in insertion order into a list
+     *
+     * @param list The list to append the devices to
+     * @return The list passed
+     */
+    public <T extends List<BLEDevice>> T copyTo(T list) {
+        for (int slot = head; slot != NONE; slot = next[slot]) {
+            list.add(devices[slot]);
+        }
+        return list;
+    }
+
+    /**
+     * Get an ordered snapshot of the devices
+     *
+     * @return New list of devices in insertion order
+     */
+    public ArrayList<BLEDevice> snapshot() {
+        return copyTo(new ArrayList<BLEDevice>(size));
+    }
+
+    private int allocateSlot() {
+        if (free != NONE) {
+            int slot = free;
+            free = next[slot];
+            return slot;
+        }
+        if (used == devices.length) {
+            int capacity = devices.length * 2;
+            devices = Arrays.copyOf(devices, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return used++;
+    }
+}
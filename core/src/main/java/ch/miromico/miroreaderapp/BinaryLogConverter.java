@@ -0,0 +1,122 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streaming conversion of binary logs to the CSV log format.
+ */
+public final class BinaryLogConverter {
+    protected static final String TAG = "BinaryLogConverter";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinaryLogConverter() {
+    }
+
+    /**
+     * Convert a binary log file to a CSV log file
+     *
+     * @param binaryFile The binary log to read
+     * @param csvFile    The CSV file to write
+     * @return Number of rows converted
+     * @throws IOException If reading or writing fails
+     */
+    public static long toCsv(File binaryFile, File csvFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(binaryFile), BUFFER_SIZE);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(csvFile), BUFFER_SIZE);
+            try {
+                return toCsv(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Convert a binary log stream to CSV, rows are written as they are read
+     *
+     * @param in  The binary log stream, should be buffered
+     * @param out The CSV output stream, should be buffered
+     * @return Number of rows converted
+     * @throws IOException If reading or writing fails
+     */
+    public static long toCsv(InputStream in, OutputStream out) throws IOException {
+        BinaryLogReader reader = new BinaryLogReader(in);
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        encoder.writeHeader(out);
+
+        long rows = 0;
+        while (reader.next()) {
+            int length = encoder.encode(reader.getTimestamp(), reader.getAddress(), reader.getRssi(),
+                    reader.getRecord(), reader.getRecordLength(), reader.getData(), reader.getName());
+            out.write(encoder.getBuffer(), 0, length);
+            rows++;
+        }
+        if (!reader.isComplete()) {
+            CoreLog.w(TAG, "Log damaged after byte " + reader.getValidLength() + ", converted " + rows + " rows");
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encoder of the compact binary log format.
+ * <p>
+ * The file starts with the magic "BLEL" and a version byte, followed by records, each prefixed
+ * by its length as unsigned varint and ending with a CRC-8 of the record contents, so records
+ * damaged by a crash while writing are detected. The first byte of a record holds the record
+ * type in the low and flags in the high nibble:
+ * <ul>
+ * <li>Device record: device id, flags, the address as 6 byte MAC or as string and the name.
+ * Each device gets a session id when first logged, the record is repeated with the same id if
+ * the address string or the name changes.</li>
+ * <li>Packet record: device id, zig-zag varint timestamp delta to the previous packet, the RSSI
+ * as signed byte (varint if out of range) and the raw record bytes up to the zero padding as
+ * the rest of the record. The payload is left out if equal to the last payload of the device.</li>
+ * </ul>
+ * Strings are length prefixed UTF-8. Converting the log by {@link BinaryLogConverter} results
+ * in the same CSV as written by {@link CsvRowEncoder}. Not thread safe.
+ */
+public class BinaryLogEncoder implements LogEncoder {
+    /**
+     * Extension of binary log files
+     */
+    public static final String FILE_EXTENSION = "bin";
+
+    static final byte[] MAGIC = {'B', 'L', 'E', 'L'};
+    static final int VERSION = 2;
+
+    /**
+     * Record types
+     */
+    static final int TYPE_MASK = 0x0F;
+    static final int TYPE_DEVICE = 0x01;
+    static final int TYPE_PACKET = 0x02;
+
+    /**
+     * Device record flags
+     */
+    static final int DEVICE_MAC = 0x01;
+    static final int DEVICE_ADDRESS = 0x02;
+    static final int DEVICE_NAME = 0x04;
+
+    /**
+     * Packet record flags
+     */
+    static final int PACKET_WIDE_RSSI = 0x10;
+    static final int PACKET_NO_DATA = 0x20;
+    static final int PACKET_TEXT_DATA = 0x40;
+    static final int PACKET_REPEAT = 0x80;
+
+    static final int MAX_VARINT_LENGTH = 10;
+
+    /**
+     * Lookup table of the CRC-8 with polynomial 0x07
+     */
+    private static final byte[] CRC8_TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC8_TABLE[i] = (byte) crc;
+        }
+    }
+
+    /**
+     * Session state
+     */
+    private final LongIntHashMap ids = new LongIntHashMap();
+    private String[] addresses = new String[16];
+    private String[] names = new String[16];
+    private byte[][] payloads = new byte[16][];
+    private int[] payloadLengths = new int[16];
+    private int deviceCount = 0;
+    private long lastTimestamp = 0;
+
+    private final byte[] prefix = new byte[MAX_VARINT_LENGTH];
+    private byte[] body = new byte[128];
+    private int length = 0;
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    @Override
+    public void writeHeader(OutputStream out) throws IOException {
+        ids.clear();
+        Arrays.fill(addresses, null);
+        Arrays.fill(names, null);
+        Arrays.fill(payloads, null);
+        deviceCount = 0;
+        lastTimestamp = 0;
+
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    public void writeRow(BLEDevice device, OutputStream out) throws IOException {
+        int id = defineDevice(device, out);
+
+        length = 1;
+        putVarint(id);
+        // timestamp relative to previous packet
+        long timestamp = device.getTimestamp();
+        putVarint(zigZag(timestamp - lastTimestamp));
+        lastTimestamp = timestamp;
+
+        int type = TYPE_PACKET;
+        int rssi = device.getRssi();
+        if (rssi == (byte) rssi) {
+            ensureCapacity(1);
+            body[length++] = (byte) rssi;
+        } else {
+            type |= PACKET_WIDE_RSSI;
+            putVarint(zigZag(rssi));
+        }
+
+        byte[] record = device.getRecord();
+        if (record != null) {
+            // skip the zero padding, it is not part of the logged data
+            int n = AdvertisementParser.significantLength(record);
+            if (equalPayload(payloads[id], payloadLengths[id], record, n)) {
+                type |= PACKET_REPEAT;
+            } else {
+                ensureCapacity(n);
+                System.arraycopy(record, 0, body, length, n);
+                length += n;
+                // records are not modified after reception, keep reference for comparison
+                payloads[id] = record;
+                payloadLengths[id] = n;
+            }
+        } else {
+            String data = device.getData();
+            if (data == null) {
+                type |= PACKET_NO_DATA;
+            } else {
+                type |= PACKET_TEXT_DATA;
+                ensureCapacity(CsvRowEncoder.maxUtf8Length(data));
+                length = CsvRowEncoder.encodeUtf8(data, body, length);
+            }
+        }
+        body[0] = (byte) type;
+        writeRecord(out);
+    }
+
+    /**
+     * Get the session id of a device, writes a device record if new or changed
+     */
+    private int defineDevice(BLEDevice device, OutputStream out) throws IOException {
+        long key = device.getAddressKey();
+        String address = device.getAddress();
+        String name = device.getName();
+
+        int id = ids.get(key);
+        if (id == LongIntHashMap.MISSING) {
+            id = deviceCount++;
+            if (id == addresses.length) {
+                int capacity = 2 * id;
+                addresses = Arrays.copyOf(addresses, capacity);
+                names = Arrays.copyOf(names, capacity);
+                payloads = Arrays.copyOf(payloads, capacity);
+                payloadLengths = Arrays.copyOf(payloadLengths, capacity);
+            }
+            ids.put(key, id);
+        } else if (equal(addresses[id], address) && equal(names[id], name)) {
+            return id;
+        }
+        addresses[id] = address;
+        names[id] = name;
+        payloads[id] = null;
+
+        length = 1;
+        putVarint(id);
+        int flags = 0;
+        if (address != null) {
+            // store as 6 bytes if the address string can be restored from it
+            flags |= key != MacAddress.INVALID && MacAddress.format(key).equals(address)
+                    ? DEVICE_MAC : DEVICE_ADDRESS;
+        }
+        if (name != null) {
+            flags |= DEVICE_NAME;
+        }
+        ensureCapacity(1);
+        body[length++] = (byte) flags;
+        if ((flags & DEVICE_MAC) != 0) {
+            ensureCapacity(6);
+            for (int i = 0; i < 6; i++) {
+                body[length++] = (byte) (key >>> (40 - 8 * i));
+            }
+        } else if ((flags & DEVICE_ADDRESS) != 0) {
+            putString(address);
+        }
+        if (name != null) {
+            putString(name);
+        }
+        body[0] = (byte) TYPE_DEVICE;
+        writeRecord(out);
+        return id;
+    }
+
+    private void writeRecord(OutputStream out) throws IOException {
+        ensureCapacity(1);
+        body[length] = (byte) crc8(body, 0, length);
+        length++;
+        int n = encodeVarint(length, prefix, 0);
+        out.write(prefix, 0, n);
+        out.write(body, 0, length);
+    }
+
+    private void putString(String value) {
+        // length prefix is written after encoding, move string if prefix takes more than 1 byte
+        int max = CsvRowEncoder.maxUtf8Length(value);
+        ensureCapacity(MAX_VARINT_LENGTH + max);
+        int start = length + 1;
+        int end = CsvRowEncoder.encodeUtf8(value, body, start);
+        int n = end - start;
+        int prefixLength = encodeVarint(n, prefix, 0);
+        if (prefixLength > 1) {
+            System.arraycopy(body, start, body, length + prefixLength, n);
+        }
+        System.arraycopy(prefix, 0, body, length, prefixLength);
+        length += prefixLength + n;
+    }
+
+    private void putVarint(long value) {
+        ensureCapacity(MAX_VARINT_LENGTH);
+        length = encodeVarint(value, body, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > body.length) {
+            body = Arrays.copyOf(body, Math.max(2 * body.length, length + extra));
+        }
+    }
+
+    private static boolean equalPayload(byte[] a, int aLength, byte[] b, int bLength) {
+        if (a == null || aLength != bLength) {
+            return false;
+        }
+        if (a == b) {
+            return true;
+        }
+        for (int i = 0; i < aLength; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * CRC-8 (polynomial 0x07, initial value 0xFF) of a byte range
+     */
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0xFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xFF] & 0xFF;
+        }
+        return crc;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Encode an unsigned varint, 7 bits per byte with the high bit marking continuation
+     *
+     * @return The offset after the encoded value
+     */
+    static int encodeVarint(long value, byte[] out, int offset) {
+        while ((value & ~0x7FL) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming reader of the binary log format written by {@link BinaryLogEncoder}.
+ * <p>
+ * Reading stops at the end of the last complete and well-formed record with a valid checksum,
+ * e.g. if the log was cut off by a crash. Unknown record types are skipped. The returned packet values are only valid
+ * until the next call to next(). Not thread safe.
+ */
+public class BinaryLogReader {
+    /**
+     * Upper bound of a valid record length, larger values indicate a corrupt file
+     */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private final InputStream in;
+
+    /**
+     * Session state
+     */
+    private String[] addresses = new String[16];
+    private String[] names = new String[16];
+    private byte[][] payloads = new byte[16][];
+    private int[] payloadLengths = new int[16];
+    private int deviceCount = 0;
+
+    private byte[] body = new byte[128];
+    private int bodyLength = 0;
+    private int pos = 0;
+    private boolean malformed = false;
+
+    private long validLength = 0;
+    private boolean complete = false;
+
+    /**
+     * Current packet
+     */
+    private long timestamp = 0;
+    private int rssi = 0;
+    private String address = null;
+    private String name = null;
+    private byte[] record = null;
+    private int recordLength = 0;
+    private String data = null;
+
+    /**
+     * Open a log for reading, the stream should be buffered
+     *
+     * @param in The stream to read from
+     * @throws IOException If reading fails or the stream is not a binary log
+     */
+    public BinaryLogReader(InputStream in) throws IOException {
+        this.in = in;
+        for (byte b : BinaryLogEncoder.MAGIC) {
+            if (in.read() != b) {
+                throw new IOException("Not a binary BLE log");
+            }
+        }
+        int version = in.read();
+        if (version != BinaryLogEncoder.VERSION) {
+            throw new IOException("Unsupported binary BLE log version: " + version);
+        }
+        validLength = BinaryLogEncoder.MAGIC.length + 1;
+    }
+
+    /**
+     * Advance to the next packet
+     *
+     * @return true if a packet was read, false at the end of the log
+     * @throws IOException If reading fails
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            // read length prefix
+            long recordLength = 0;
+            int prefixLength = 0;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    complete = prefixLength == 0;
+                    return false;
+                }
+                recordLength |= (long) (b & 0x7F) << (7 * prefixLength);
+                prefixLength++;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+                if (prefixLength == BinaryLogEncoder.MAX_VARINT_LENGTH) {
+                    return false;
+                }
+            }
+            if (recordLength < 2 || recordLength > MAX_RECORD_LENGTH) {
+                return false;
+            }
+
+            // read record
+            bodyLength = (int) recordLength;
+            if (bodyLength > body.length) {
+                body = new byte[Math.max(2 * body.length, bodyLength)];
+            }
+            int n = 0;
+            while (n < bodyLength) {
+                int read = in.read(body, n, bodyLength - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+            // last byte is the checksum of the record contents
+            bodyLength--;
+            if (BinaryLogEncoder.crc8(body, 0, bodyLength) != (body[bodyLength] & 0xFF)) {
+                return false;
+            }
+
+            pos = 0;
+            malformed = false;
+            int type = body[pos++] & 0xFF;
+            boolean packet = false;
+            switch (type & BinaryLogEncoder.TYPE_MASK) {
+                case BinaryLogEncoder.TYPE_DEVICE:
+                    readDevice();
+                    break;
+                case BinaryLogEncoder.TYPE_PACKET:
+                    readPacket(type);
+                    packet = true;
+                    break;
+                default:
+                    // skip unknown record types
+                    break;
+            }
+            if (malformed) {
+                return false;
+            }
+            validLength += prefixLength + recordLength;
+            if (packet) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Check if the log ended after a complete record
+     *
+     * @return true if the whole log was read, false if reading stopped at a damaged record
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Number of bytes from the start of the log up to the end of the last valid record read
+     *
+     * @return The valid log length in bytes
+     */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the raw advertisement record of the packet (not copied, do not modify)
+     *
+     * @return The record bytes, valid up to getRecordLength(), or null if not available
+     */
+    public byte[] getRecord() {
+        return record;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Get the data string of packets logged without raw record
+     *
+     * @return The data string, or null
+     */
+    public String getData() {
+        return data;
+    }
+
+    private void readDevice() {
+        int id = (int) readVarint();
+        int flags = readByte();
+        if (malformed || id < 0 || id > deviceCount) {
+            malformed = true;
+            return;
+        }
+
+        String deviceAddress = null;
+        if ((flags & BinaryLogEncoder.DEVICE_MAC) != 0) {
+            long mac = 0;
+            for (int i = 0; i < 6; i++) {
+                mac = (mac << 8) | readByte();
+            }
+            deviceAddress = MacAddress.format(mac);
+        } else if ((flags & BinaryLogEncoder.DEVICE_ADDRESS) != 0) {
+            deviceAddress = readString();
+        }
+        String deviceName = null;
+        if ((flags & BinaryLogEncoder.DEVICE_NAME) != 0) {
+            deviceName = readString();
+        }
+        if (malformed) {
+            return;
+        }
+
+        if (id == deviceCount) {
+            deviceCount++;
+            if (id == addresses.length) {
+                int capacity = 2 * id;
+                addresses = Arrays.copyOf(addresses, capacity);
+                names = Arrays.copyOf(names, capacity);
+                payloads = Arrays.copyOf(payloads, capacity);
+                payloadLengths = Arrays.copyOf(payloadLengths, capacity);
+            }
+        }
+        addresses[id] = deviceAddress;
+        names[id] = deviceName;
+        payloadLengths[id] = -1;
+    }
+
+    private void readPacket(int type) {
+        int id = (int) readVarint();
+        long delta = BinaryLogEncoder.unZigZag(readVarint());
+        int packetRssi;
+        if ((type & BinaryLogEncoder.PACKET_WIDE_RSSI) != 0) {
+            packetRssi = (int) BinaryLogEncoder.unZigZag(readVarint());
+        } else {
+            packetRssi = (byte) readByte();
+        }
+        if (malformed || id < 0 || id >= deviceCount) {
+            malformed = true;
+            return;
+        }
+
+        record = null;
+        recordLength = 0;
+        data = null;
+        boolean raw = true;
+        int n = bodyLength - pos;
+        if ((type & BinaryLogEncoder.PACKET_REPEAT) != 0) {
+            if (payloadLengths[id] < 0) {
+                malformed = true;
+                return;
+            }
+        } else if ((type & BinaryLogEncoder.PACKET_NO_DATA) != 0) {
+            raw = false;
+        } else if ((type & BinaryLogEncoder.PACKET_TEXT_DATA) != 0) {
+            data = new String(body, pos, n, StandardCharsets.UTF_8);
+            raw = false;
+        } else {
+            // keep payload of the device for repeated packets
+            byte[] payload = payloads[id];
+            if (payload == null || payload.length < n) {
+                payload = new byte[Math.max(n, 32)];
+                payloads[id] = payload;
+            }
+            System.arraycopy(body, pos, payload, 0, n);
+            payloadLengths[id] = n;
+        }
+        if (raw) {
+            record = payloads[id];
+            recordLength = payloadLengths[id];
+        }
+
+        timestamp += delta;
+        rssi = packetRssi;
+        address = addresses[id];
+        name = names[id];
+    }
+
+    private int readByte() {
+        if (pos >= bodyLength) {
+            malformed = true;
+            return 0;
+        }
+        return body[pos++] & 0xFF;
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        malformed = true;
+        return 0;
+    }
+
+    private String readString() {
+        long n = readVarint();
+        if (malformed || n > bodyLength - pos) {
+            malformed = true;
+            return null;
+        }
+        String value = new String(body, pos, (int) n, StandardCharsets.UTF_8);
+        pos += (int) n;
+        return value;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+/**
+ * Logging facade of the core library, keeping it free of Android dependencies.
+ * <p>
+ * Messages are passed to the installed {@link Sink}, the app installs a sink forwarding to the
+ * Android log. Without a sink, warnings and errors are printed to the standard error stream.
+ */
+public final class CoreLog {
+    /**
+     * Log levels, same values as the Android log priorities
+     */
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * Log output of the core library
+     */
+    public interface Sink {
+        /**
+         * Check whether messages of a level are logged, to skip building them otherwise
+         *
+         * @param tag   The log tag
+         * @param level The log level
+         * @return true if the messages are logged
+         */
+        boolean isLoggable(String tag, int level);
+
+        /**
+         * Log a message
+         *
+         * @param level     The log level
+         * @param tag       The log tag
+         * @param message   The message
+         * @param throwable The exception to log, or null
+         */
+        void log(int level, String tag, String message, Throwable throwable);
+    }
+
+    private static final Sink DEFAULT_SINK = new Sink() {
+        @Override
+        public boolean isLoggable(String tag, int level) {
+            return level >= WARN;
+        }
+
+        @Override
+        public void log(int level, String tag, String message, Throwable throwable) {
+            System.err.println(tag + ": " + message);
+            if (throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Sink sink = DEFAULT_SINK;
+
+    private CoreLog() {
+    }
+
+    /**
+     * Install the log output
+     *
+     * @param sink The sink, or null to restore the default output
+     */
+    public static void setSink(Sink sink) {
+        CoreLog.sink = sink != null ? sink : DEFAULT_SINK;
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return sink.isLoggable(tag, level);
+    }
+
+    public static void v(String tag, String message) {
+        log(VERBOSE, tag, message, null);
+    }
+
+    public static void d(String tag, String message) {
+        log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable throwable) {
+        log(WARN, tag, message, throwable);
+    }
+
+    public static void e(String tag, String message) {
+        log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        log(ERROR, tag, message, throwable);
+    }
+
+    private static void log(int level, String tag, String message, Throwable throwable) {
+        Sink s = sink;
+        if (s.isLoggable(tag, level)) {
+            s.log(level, tag, message, throwable);
+        }
+    }
+}
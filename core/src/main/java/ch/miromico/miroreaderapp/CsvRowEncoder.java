@@ -0,0 +1,332 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encoder of the CSV log rows into a reusable UTF-8 byte buffer.
+ * <p>
+ * Numbers, hex data and strings are converted directly into the buffer without intermediate
+ * strings, so encoding a row does not allocate once the buffer has grown to the longest row.
+ * The output is identical to writing the row string through a UTF-8 writer, including the
+ * '?' replacement of unpaired surrogates. Not thread safe.
+ */
+public class CsvRowEncoder implements LogEncoder {
+    /**
+     * Extension of CSV log files
+     */
+    public static final String FILE_EXTENSION = "csv";
+
+    /**
+     * Placeholder written for missing values
+     */
+    private static final byte[] NOT_AVAILABLE = {'N', 'A'};
+
+    private static final byte[] HEADER = ("time" + BLEDeviceLog.CSV_DELIMITER
+            + "address" + BLEDeviceLog.CSV_DELIMITER
+            + "RSSI" + BLEDeviceLog.CSV_DELIMITER
+            + "data" + BLEDeviceLog.CSV_DELIMITER
+            + "name" + "\n").getBytes();
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * Digits of Long.MIN_VALUE, which cannot be negated
+     */
+    private static final byte[] LONG_MIN_DIGITS = String.valueOf(Long.MIN_VALUE).getBytes();
+
+    private byte[] buffer;
+    private int length = 0;
+
+    public CsvRowEncoder() {
+        this(256);
+    }
+
+    /**
+     * Create an encoder with an initial buffer size
+     *
+     * @param capacity Initial buffer size in bytes, grows if a row does not fit
+     */
+    public CsvRowEncoder(int capacity) {
+        buffer = new byte[Math.max(capacity, 32)];
+    }
+
+    /**
+     * Encode the header row
+     *
+     * @return Number of bytes encoded
+     */
+    public int encodeHeader() {
+        length = 0;
+        append(HEADER);
+        return length;
+    }
+
+    /**
+     * Encode the log row of a device observation
+     *
+     * @param device The device to log
+     * @return Number of bytes encoded
+     */
+    public int encode(BLEDevice device) {
+        byte[] record = device.getRecord();
+        if (record != null) {
+            return encode(device.getTimestamp(), device.getAddress(), device.getRssi(),
+                    record, record.length, null, device.getName());
+        }
+        return encode(device.getTimestamp(), device.getAddress(), device.getRssi(),
+                null, 0, device.getData(), device.getName());
+    }
+
+    /**
+     * Encode a log row from its values
+     *
+     * @param timestamp    The reception timestamp
+     * @param address      The device address, may be null
+     * @param rssi         The received signal strength
+     * @param record       The raw advertisement record, or null to write the data string
+     * @param recordLength Number of record bytes to format
+     * @param data         The data string used if no record is given, may be null
+     * @param name         The device name, may be null
+     * @return Number of bytes encoded
+     */
+    public int encode(long timestamp, String address, int rssi, byte[] record, int recordLength,
+                      String data, String name) {
+        length = 0;
+        // 1) timestamp
+        appendLong(timestamp);
+        // 2) address
+        appendDelimiter();
+        appendString(address);
+        // 3) RSSI
+        appendDelimiter();
+        appendLong(rssi);
+        // 4) data, formatted from the raw record unless only the string is available
+        appendDelimiter();
+        if (record != null) {
+            appendHex(record, recordLength);
+        } else {
+            appendString(data);
+        }
+        // 5) name
+        appendDelimiter();
+        appendString(name);
+        appendByte('\n');
+        return length;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return FILE_EXTENSION;
+    }
+
+    @Override
+    public void writeHeader(OutputStream out) throws IOException {
+        encodeHeader();
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public void writeRow(BLEDevice device, OutputStream out) throws IOException {
+        encode(device);
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Get the buffer holding the last encoded row (not copied, valid until the next encoding)
+     *
+     * @return The encoding buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Number of bytes of the last encoded row
+     *
+     * @return The row length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    private void appendDelimiter() {
+        appendByte(BLEDeviceLog.CSV_DELIMITER);
+    }
+
+    private void appendByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            append(LONG_MIN_DIGITS);
+            return;
+        }
+        // max 19 digits and sign
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        // count digits, then fill from the least significant digit
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int pos = length + digits;
+        do {
+            buffer[--pos] = (byte) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        length += digits;
+    }
+
+    private void appendHex(byte[] record, int recordLength) {
+        // same block format as AdvertisementParser.formatHex()
+        ensureCapacity(3 * recordLength);
+        int blockEnd = 0;
+        for (int i = 0; i < recordLength; i++) {
+            // check for another block in packet
+            if (i == blockEnd) {
+                // zero length -> no additional data
+                if (record[i] == 0) {
+                    break;
+                }
+                blockEnd = i + record[i] + 1;
+                // if not first packet add block separator
+                if (i > 0) {
+                    buffer[length++] = AdvertisementParser.HEX_BLOCK_SEPARATOR;
+                }
+            }
+            int v = record[i] & 0xFF;
+            buffer[length++] = HEX_DIGITS[v >>> 4];
+            buffer[length++] = HEX_DIGITS[v & 0x0F];
+        }
+    }
+
+    private void appendString(String value) {
+        if (value == null) {
+            append(NOT_AVAILABLE);
+            return;
+        }
+        ensureCapacity(maxUtf8Length(value));
+        length = encodeUtf8(value, buffer, length);
+    }
+
+    /**
+     * Max number of bytes a string takes in UTF-8
+     *
+     * @param value The string
+     * @return The upper bound of the encoded length
+     */
+    static int maxUtf8Length(String value) {
+        // at most 3 bytes per UTF-16 char
+        return 3 * value.length();
+    }
+
+    /**
+     * Encode a string to UTF-8 like the charset encoder does, i.e. unpaired surrogates are
+     * replaced by '?'
+     *
+     * @param value  The string to encode
+     * @param out    The destination buffer, must hold maxUtf8Length() bytes
+     * @param offset Offset into the destination buffer
+     * @return The offset after the encoded string
+     */
+    static int encodeUtf8(String value, byte[] out, int offset) {
+        int pos = offset;
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >>> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out[pos++] = (byte) (0xE0 | (c >>> 12));
+                out[pos++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (cp >>> 18));
+                out[pos++] = (byte) (0x80 | ((cp >>> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >>> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                // unpaired surrogate, replaced like the UTF-8 charset encoder does
+                out[pos++] = '?';
+            }
+        }
+        return pos;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + extra));
+        }
+    }
+}
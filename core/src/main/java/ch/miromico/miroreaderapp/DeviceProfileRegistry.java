@@ -0,0 +1,149 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Registry of the personal MiroCard profiles, keyed by the 48-bit MAC address.
+ * <p>
+ * Profiles are loaded once from a CSV file with the columns
+ * <code>mac;name;tier;member_since;avatar</code>, a header line, empty lines and lines starting
+ * with '#' are skipped. Lookups take constant time regardless of the number of profiles. The
+ * registry is not modified after loading and can be shared between threads.
+ */
+public class DeviceProfileRegistry {
+    protected static final String TAG = "DeviceProfileRegistry";
+
+    /**
+     * Name of the profile file, both as app asset and in the app storage
+     */
+    public static final String FILE_NAME = "device_profiles.csv";
+
+    /**
+     * Registry without any profiles
+     */
+    public static final DeviceProfileRegistry EMPTY = new DeviceProfileRegistry();
+
+    private final LongIntHashMap index = new LongIntHashMap();
+    private final ArrayList<DeviceProfile> profiles = new ArrayList<>();
+
+    private DeviceProfileRegistry() {
+    }
+
+    /**
+     * Load the profiles from a CSV stream, invalid lines are skipped
+     *
+     * @param in The CSV input, UTF-8 encoded, is closed after loading
+     * @return The registry
+     * @throws IOException on read errors
+     */
+    public static DeviceProfileRegistry load(InputStream in) throws IOException {
+        DeviceProfileRegistry registry = new DeviceProfileRegistry();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty() || line.startsWith("#") || (number == 1 && line.startsWith("mac"))) {
+                    continue;
+                }
+
+                String[] fields = line.split(String.valueOf(BLEDeviceLog.CSV_DELIMITER), -1);
+                long address = fields.length == 5 ? MacAddress.parse(fields[0]) : MacAddress.INVALID;
+                if (address == MacAddress.INVALID) {
+                    CoreLog.w(TAG, "skip invalid profile line " + number);
+                    continue;
+                }
+                String avatar = fields[4].trim();
+                registry.put(new DeviceProfile(address, fields[1].trim(), fields[2].trim(),
+                        fields[3].trim(), avatar.isEmpty() ? null : avatar));
+            }
+        } finally {
+            reader.close();
+        }
+        return registry;
+    }
+
+    /**
+     * Get the profile of a device
+     *
+     * @param address The 48-bit MAC address
+     * @return The profile, or null if the device has none
+     */
+    public DeviceProfile get(long address) {
+        int i = index.get(address);
+        return i == LongIntHashMap.MISSING ? null : profiles.get(i);
+    }
+
+    public int size() {
+        return profiles.size();
+    }
+
+    private void put(DeviceProfile profile) {
+        // later lines replace earlier profiles of the same card
+        int i = index.get(profile.getAddress());
+        if (i != LongIntHashMap.MISSING) {
+            profiles.set(i, profile);
+        } else {
+            index.put(profile.getAddress(), profiles.size());
+            profiles.add(profile);
+        }
+    }
+}
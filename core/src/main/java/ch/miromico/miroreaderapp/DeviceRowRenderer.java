@@ -0,0 +1,206 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+/**
+ * Renders the display strings of device list rows, see {@link DeviceRow}.
+ * <p>
+ * Rendering does all string formatting of a row and is meant to run off the UI thread, once per
+ * device observation.
+ */
+public final class DeviceRowRenderer {
+
+    private DeviceRowRenderer() {
+    }
+
+    /**
+     * Render a row showing the raw advertisement data
+     *
+     * @param device The device observation
+     * @return The rendered row
+     */
+    public static DeviceRow renderRaw(BLEDevice device) {
+        DeviceRow row = new DeviceRow(device);
+        String address = device.getAddress();
+        String data = device.getData();
+        String name = device.getName();
+
+        row.address = address != null ? address : "{no addr}";
+        row.data = data != null ? data : "{no data}";
+        row.name = name != null ? name : "{no name}";
+        row.rssi = renderRssi(device);
+        row.timestamp = String.valueOf(device.getTimestamp());
+
+        if (device.getProfile() != null) {
+            row.avatar = device.getProfile().getAvatar();
+        }
+        return row;
+    }
+
+    /**
+     * Render a row showing the decoded sensor data, see {@link MiroCardDecoder}
+     *
+     * @param device The device observation
+     * @return The rendered row
+     */
+    public static DeviceRow renderDecoded(BLEDevice device) {
+        DeviceRow row = new DeviceRow(device);
+        String address = device.getAddress();
+        MiroCardSample sample = device.getSample();
+        String name = device.getName();
+
+        row.address = address != null ? address : "{no addr}";
+        switch (sample.getKind()) {
+            case MiroCardSample.KIND_NONE:
+                row.temperature = "N/A";
+                row.humidity = "N/A";
+                row.time = "N/A";
+                break;
+
+            //This is a special key used in the MiroCard prototypes
+            case MiroCardSample.KIND_PERSONAL:
+                DeviceProfile profile = device.getProfile();
+                if (profile != null) {
+                    name = profile.getName();
+                    row.accX = "Member";
+                    row.accY = "since:";
+                    row.accZ = profile.getMemberSince();
+                    row.time = profile.getTier();
+                    row.avatar = profile.getAvatar();
+                }
+                break;
+
+            //If timestamp is not a MiroCard Sensor, then assume it is a Transient BLE Sensor V2
+            case MiroCardSample.KIND_SENSOR_V2:
+                name = "Meeting Room";
+                row.temperature = String.format("%+7.2f °C", sample.getTemperature());
+                row.humidity = String.format("%5.1f %%RH", sample.getHumidity());
+                row.time = String.format("%08x", sample.getTimestamp());
+                break;
+
+            //Miromico sensors should have the following timestamp: 0xABABABAB
+            case MiroCardSample.KIND_MIROCARD:
+                name = "MiroCard";
+                if (sample.has(MiroCardSample.TEMP_RH)) {
+                    row.temperature = String.format("%+7.2f °C", sample.getTemperature());
+                    row.humidity = String.format("%5.1f %%RH", sample.getHumidity());
+                }
+                if (sample.has(MiroCardSample.LIGHT)) {
+                    row.luminosity = String.format("%.1f lx", sample.getLight());
+                }
+                if (sample.has(MiroCardSample.ACC)) {
+                    row.accX = String.format("X:%.2f g", sample.getAccX());
+                    row.accY = String.format("Y:%.2f g", sample.getAccY());
+                    row.accZ = String.format("Z:%.2f g", sample.getAccZ());
+                }
+                row.time = String.format("%08x", sample.getTimestamp());
+                break;
+
+            case MiroCardSample.KIND_INVALID:
+            default:
+                row.temperature = "err";
+                row.humidity = "err";
+                row.luminosity = "err";
+                row.accX = "err";
+                row.accY = "err";
+                row.accZ = "err";
+                row.time = "err";
+                break;
+        }
+
+        row.name = name != null ? name : "{no name}";
+        row.rssi = renderRssi(device);
+        row.timestamp = String.valueOf(device.getTimestamp());
+        return row;
+    }
+
+    /**
+     * Render a row of a device observation with the same payload as a rendered one, only the
+     * reception parameters are formatted, all payload texts are taken over
+     *
+     * @param previous The row of the previous observation
+     * @param device   The device observation with the same payload version
+     * @return The rendered row
+     */
+    public static DeviceRow renderSignal(DeviceRow previous, BLEDevice device) {
+        DeviceRow row = new DeviceRow(device);
+        row.name = previous.name;
+        row.address = previous.address;
+        row.data = previous.data;
+        row.temperature = previous.temperature;
+        row.humidity = previous.humidity;
+        row.luminosity = previous.luminosity;
+        row.accX = previous.accX;
+        row.accY = previous.accY;
+        row.accZ = previous.accZ;
+        row.time = previous.time;
+        row.avatar = previous.avatar;
+        row.rssi = renderRssi(device);
+        row.timestamp = String.valueOf(device.getTimestamp());
+        return row;
+    }
+
+    /**
+     * Render the signal strength, smoothed and with the proximity band once the device is
+     * filtered
+     *
+     * @param device The device observation
+     * @return The signal strength text
+     */
+    static String renderRssi(BLEDevice device) {
+        if (device.getProximity() == RssiFilter.PROXIMITY_UNKNOWN) {
+            return String.valueOf(device.getRssi());
+        }
+        return Math.round(device.getSmoothedRssi()) + " " + RssiFilter.proximityName(device.getProximity());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the active device list, published by {@link BLEDeviceLog}.
+ * <p>
+ * Each published snapshot has a higher version than the previous one, so readers can skip any
+ * work if the version did not change since their last update. The snapshot also counts the device
+ * events since the log was created, the difference between two snapshots gives the number of
+ * events in between.
+ */
+public final class DeviceSnapshot {
+    /**
+     * Snapshot before anything was published
+     */
+    public static final DeviceSnapshot EMPTY = new DeviceSnapshot(0, Collections.<BLEDevice>emptyList(),
+            Collections.<BLEDevice>emptyList(), 0, 0, 0);
+
+    private final long version;
+    private final List<BLEDevice> devices;
+    private final List<BLEDevice> allDevices;
+    private final long addedCount;
+    private final long updatedCount;
+    private final long removedCount;
+
+    /**
+     * Create a snapshot
+     *
+     * @param version      The snapshot version
+     * @param devices      The devices, must not be modified afterwards
+     * @param allDevices   All devices of the table regardless of the filter, may be the same list
+     * @param addedCount   Total number of devices added
+     * @param updatedCount Total number of updates of existing devices
+     * @param removedCount Total number of devices expired or cleared
+     */
+    DeviceSnapshot(long version, List<BLEDevice> devices, List<BLEDevice> allDevices, long addedCount,
+                   long updatedCount, long removedCount) {
+        this.version = version;
+        this.devices = Collections.unmodifiableList(devices);
+        this.allDevices = allDevices == devices ? this.devices : Collections.unmodifiableList(allDevices);
+        this.addedCount = addedCount;
+        this.updatedCount = updatedCount;
+        this.removedCount = removedCount;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the devices in display order, by default the order of first appearance
+     *
+     * @return Unmodifiable list of the devices
+     */
+    public List<BLEDevice> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Get all devices of the table, not restricted by the filter of the displayed list
+     *
+     * @return Unmodifiable list of the devices, in no particular order
+     */
+    public List<BLEDevice> getAllDevices() {
+        return allDevices;
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public long getAddedCount() {
+        return addedCount;
+    }
+
+    public long getUpdatedCount() {
+        return updatedCount;
+    }
+
+    public long getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Check whether this snapshot differs from a previously seen one
+     *
+     * @param version The version seen before
+     * @return true if the device list changed since that version
+     */
+    public boolean isChangedSince(long version) {
+        return this.version != version;
+    }
+}
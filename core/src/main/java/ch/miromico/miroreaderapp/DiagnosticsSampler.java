@@ -0,0 +1,188 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the performance figures of the scan pipeline from its counters, e.g. once a second.
+ * <p>
+ * Sampling only reads counters maintained anyway and the published device list, it does not add
+ * any work to the processing of the advertisements. Not thread safe, sample from one thread.
+ */
+public class DiagnosticsSampler {
+    /**
+     * Number of most active devices reported
+     */
+    public static final int TOP_DEVICES = 5;
+
+    private final StripedCounter receivedCounter;
+    private final BLEDeviceLog deviceLog;
+    private final LatencyStats latencyStats;
+
+    /**
+     * Counter values of the last sample
+     */
+    private long lastTime = 0;
+    private long lastReceived = 0;
+    private AsyncLogWriter lastLogWriter = null;
+    private long lastLogBytes = 0;
+    private long[] lastLatencyCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private long[] latencyCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private LongIntHashMap lastDeviceCounts = new LongIntHashMap();
+
+    /**
+     * Create a sampler
+     *
+     * @param receivedCounter Counter of the received advertisements
+     * @param deviceLog       The device log processing the advertisements
+     * @param latencyStats    The latencies recorded by the device log
+     */
+    public DiagnosticsSampler(StripedCounter receivedCounter, BLEDeviceLog deviceLog,
+                              LatencyStats latencyStats) {
+        this.receivedCounter = receivedCounter;
+        this.deviceLog = deviceLog;
+        this.latencyStats = latencyStats;
+    }
+
+    /**
+     * Take a sample of the figures since the last call, the first sample covers the time since
+     * the creation of the counters
+     *
+     * @return The sample
+     */
+    public DiagnosticsSample sample() {
+        DiagnosticsSample sample = new DiagnosticsSample();
+        long now = System.nanoTime();
+        long interval = lastTime != 0 ? now - lastTime : 0;
+        double perSecond = interval > 0 ? 1e9 / interval : 0;
+        lastTime = now;
+        sample.interval = interval;
+
+        long received = receivedCounter.sum();
+        // counters may have been reset by a new scan
+        sample.packetRate = Math.max(0, received - lastReceived) * perSecond;
+        lastReceived = received;
+
+        sample.invalidAddresses = deviceLog.getInvalidAddressCount();
+
+        DeviceSnapshot snapshot = deviceLog.getSnapshot();
+        sample.deviceCount = snapshot.getAddedCount() - snapshot.getRemovedCount();
+        sampleDevices(sample, snapshot.getAllDevices(), perSecond);
+
+        AsyncLogWriter logWriter = deviceLog.getLogWriter();
+        if (logWriter != null) {
+            long bytes = logWriter.getWrittenBytes();
+            long lastBytes = logWriter == lastLogWriter ? lastLogBytes : 0;
+            sample.logQueueDepth = logWriter.getQueueDepth();
+            sample.logBytesRate = Math.max(0, bytes - lastBytes) * perSecond;
+            sample.logDroppedRows = logWriter.getDroppedCount();
+            lastLogBytes = bytes;
+        }
+        lastLogWriter = logWriter;
+
+        // percentiles of the latencies recorded since the last sample
+        long[] counts = lastLatencyCounts;
+        latencyStats.getHistogram(LatencyStats.STAGE_TABLE_UPDATE).copyCounts(latencyCounts);
+        for (int i = 0; i < counts.length; i++) {
+            long current = latencyCounts[i];
+            counts[i] = Math.max(0, current - counts[i]);
+            latencyCounts[i] = current;
+        }
+        sample.ingestLatencyP50 = LatencyHistogram.valueAtPercentile(counts, 50);
+        sample.ingestLatencyP99 = LatencyHistogram.valueAtPercentile(counts, 99);
+        // keep the current counts as the reference of the next sample
+        lastLatencyCounts = latencyCounts;
+        latencyCounts = counts;
+
+        return sample;
+    }
+
+    private void sampleDevices(DiagnosticsSample sample, List<BLEDevice> devices, double perSecond) {
+        LongIntHashMap deviceCounts = new LongIntHashMap(devices.size());
+        String[] top = new String[TOP_DEVICES];
+        double[] topRates = new double[TOP_DEVICES];
+        int topCount = 0;
+        for (int i = 0; i < devices.size(); i++) {
+            BLEDevice device = devices.get(i);
+            int count = device.getReceivedCount();
+            deviceCounts.put(device.getAddressKey(), count);
+            int last = lastDeviceCounts.get(device.getAddressKey());
+            // unknown before the first sample of a device, restarted count after a new scan
+            int delta;
+            if (last == LongIntHashMap.MISSING) {
+                delta = 0;
+            } else {
+                delta = last <= count ? count - last : count;
+            }
+            double rate = delta * perSecond;
+
+            // insert into the top list, ordered by rate
+            int pos = topCount;
+            while (pos > 0 && topRates[pos - 1] < rate) {
+                pos--;
+            }
+            if (pos < TOP_DEVICES && rate > 0) {
+                int moved = Math.min(topCount, TOP_DEVICES - 1) - pos;
+                System.arraycopy(top, pos, top, pos + 1, moved);
+                System.arraycopy(topRates, pos, topRates, pos + 1, moved);
+                top[pos] = device.getAddress();
+                topRates[pos] = rate;
+                topCount = Math.min(topCount + 1, TOP_DEVICES);
+            }
+        }
+        lastDeviceCounts = deviceCounts;
+        sample.topDevices = Arrays.copyOf(top, topCount);
+        sample.topDeviceRates = Arrays.copyOf(topRates, topCount);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.util.Arrays;
+
+/**
+ * Hashed timer wheel scheduling the expiry of device table slots.
+ * <p>
+ * Each scheduled slot is kept in the bucket of its deadline tick, linked through primitive arrays
+ * indexed by slot. Scheduling and cancelling are O(1). Advancing the wheel only visits the buckets
+ * of the ticks passed since the last call and only expires entries that are actually due; entries
+ * scheduled further ahead than one wheel revolution stay in their bucket until due. Deadlines are
+ * in nanoseconds of the same time base as System.nanoTime(). Not thread safe.
+ */
+public class ExpiryWheel {
+    /**
+     * Slot value marking the end of a bucket list
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Callback for expired slots
+     */
+    public interface Callback {
+        /**
+         * Called for each slot whose deadline passed. The slot is no longer scheduled. The
+         * callback must not schedule or cancel other slots of the wheel being advanced.
+         *
+         * @param slot The expired slot
+         */
+        void onExpired(int slot);
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final int[] buckets;
+
+    private long[] deadlines;
+    private int[] bucketOf;
+    private int[] prev;
+    private int[] next;
+
+    /**
+     * Last tick completely processed
+     */
+    private long currentTick = Long.MIN_VALUE;
+
+    private int size = 0;
+
+    /**
+     * Create a timer wheel
+     *
+     * @param tickNanos  Tick resolution in nanoseconds
+     * @param wheelSize  Number of buckets, rounded up to a power of two
+     * @param slotLimit  Initial number of slots supported
+     */
+    public ExpiryWheel(long tickNanos, int wheelSize, int slotLimit) {
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickNanos = tickNanos;
+        this.mask = size - 1;
+        this.buckets = new int[size];
+        Arrays.fill(buckets, NONE);
+
+        slotLimit = Math.max(slotLimit, 4);
+        deadlines = new long[slotLimit];
+        bucketOf = new int[slotLimit];
+        prev = new int[slotLimit];
+        next = new int[slotLimit];
+        Arrays.fill(bucketOf, NONE);
+    }
+
+    /**
+     * Schedule or reschedule the expiry of a slot
+     *
+     * @param slot     The slot
+     * @param deadline Time in nanoseconds after which the slot expires
+     */
+    public void schedule(int slot, long deadline) {
+        ensureCapacity(slot + 1);
+        if (bucketOf[slot] != NONE) {
+            unlink(slot);
+        } else {
+            size++;
+        }
+
+        // never schedule into a tick already processed
+        long tick = deadline / tickNanos;
+        if (currentTick != Long.MIN_VALUE && tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        int bucket = (int) (tick & mask);
+
+        deadlines[slot] = deadline;
+        bucketOf[slot] = bucket;
+        prev[slot] = NONE;
+        next[slot] = buckets[bucket];
+        if (buckets[bucket] != NONE) {
+            prev[buckets[bucket]] = slot;
+        }
+        buckets[bucket] = slot;
+    }
+
+    /**
+     * Remove a slot from the wheel, if scheduled
+     *
+     * @param slot The slot
+     */
+    public void cancel(int slot) {
+        if (slot < bucketOf.length && bucketOf[slot] != NONE) {
+            unlink(slot);
+            bucketOf[slot] = NONE;
+            size--;
+        }
+    }
+
+    public boolean isScheduled(int slot) {
+        return slot < bucketOf.length && bucketOf[slot] != NONE;
+    }
+
+    public long getDeadline(int slot) {
+        return deadlines[slot];
+    }
+
+    /**
+     * Number of slots scheduled
+     *
+     * @return The number of scheduled slots
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Advance the wheel and expire all slots with a deadline before the given time
+     *
+     * @param now      The current time in nanoseconds
+     * @param callback Callback notified for each expired slot
+     * @return Number of expired slots
+     */
+    public int advance(long now, Callback callback) {
+        long nowTick = now / tickNanos;
+        if (currentTick == Long.MIN_VALUE) {
+            currentTick = nowTick - 1;
+        }
+        if (size == 0) {
+            // nothing scheduled, just keep up with time
+            currentTick = Math.max(currentTick, nowTick - 1);
+            return 0;
+        }
+
+        // visit each bucket at most once, the current tick is revisited on the next call
+        long firstTick = currentTick + 1;
+        long lastTick = Math.min(nowTick, firstTick + mask);
+        int expired = 0;
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            int bucket = (int) (tick & mask);
+            int slot = buckets[bucket];
+            while (slot != NONE) {
+                int following = next[slot];
+                if (deadlines[slot] <= now) {
+                    cancel(slot);
+                    callback.onExpired(slot);
+                    expired++;
+                }
+                slot = following;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick - 1);
+        return expired;
+    }
+
+    /**
+     * Remove all scheduled slots
+     */
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        Arrays.fill(bucketOf, NONE);
+        currentTick = Long.MIN_VALUE;
+        size = 0;
+    }
+
+    private void unlink(int slot) {
+        int bucket = bucketOf[slot];
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            buckets[bucket] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        }
+    }
+
+    private void ensureCapacity(int slotLimit) {
+        if (slotLimit <= bucketOf.length) {
+            return;
+        }
+        int capacity = Math.max(slotLimit, 2 * bucketOf.length);
+        int oldCapacity = bucketOf.length;
+        deadlines = Arrays.copyOf(deadlines, capacity);
+        bucketOf = Arrays.copyOf(bucketOf, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        Arrays.fill(bucketOf, oldCapacity, capacity, NONE);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Latencies of the processing stages of an observation, measured from its reception time.
+ * <p>
+ * Each stage records into its own {@link LatencyHistogram}, recording does not allocate and may
+ * be called from any thread.
+ */
+public class LatencyStats {
+    /**
+     * Processing stages
+     */
+    public static final int STAGE_CALLBACK = 0;
+    public static final int STAGE_TABLE_UPDATE = 1;
+    public static final int STAGE_LOG_WRITE = 2;
+    public static final int STAGE_SNAPSHOT_PUBLISH = 3;
+    public static final int STAGE_BIND = 4;
+
+    private static final String[] STAGE_NAMES = {
+            "callback", "table update", "log write", "snapshot publish", "bind"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+
+    public LatencyStats() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record that an observation reached a stage now
+     *
+     * @param stage     The stage
+     * @param timestamp The reception time of the observation, see {@link BLEDevice#getTimestamp()}
+     */
+    public void record(int stage, long timestamp) {
+        // observations without reception time, e.g. restored ones, are not measured
+        if (timestamp > 0) {
+            histograms[stage].record(System.nanoTime() - timestamp);
+        }
+    }
+
+    /**
+     * Get the histogram of a stage
+     *
+     * @param stage The stage
+     * @return The histogram of the latencies in nanoseconds
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public static int getStageCount() {
+        return STAGE_NAMES.length;
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Clear the latencies of all stages
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Write a report with the percentiles and the non-empty buckets of all stages
+     *
+     * @param file The report file
+     * @throws IOException If writing fails
+     */
+    public void writeReport(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeReport(out);
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+    /**
+     * Write a report with the percentiles and the non-empty buckets of all stages
+     *
+     * @param out The output, not closed
+     */
+    public void writeReport(PrintWriter out) {
+        out.println("# latency from reception [us]");
+        out.println("stage;count;mean;p50;p90;p99;p99.9;max");
+        for (int stage = 0; stage < histograms.length; stage++) {
+            LatencyHistogram h = histograms[stage];
+            out.println(String.format(Locale.ROOT, "%s;%d;%.1f;%.1f;%.1f;%.1f;%.1f;%.1f",
+                    STAGE_NAMES[stage], h.getCount(), h.getMean() / 1000,
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getMax() / 1000.0));
+        }
+        out.println();
+        out.println("# bucket counts [ns]");
+        out.println("stage;from;to;count");
+        for (int stage = 0; stage < histograms.length; stage++) {
+            LatencyHistogram h = histograms[stage];
+            for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+                long n = h.getBucketCount(bucket);
+                if (n > 0) {
+                    out.println(STAGE_NAMES[stage] + ";" + LatencyHistogram.lowerBound(bucket) + ";"
+                            + LatencyHistogram.upperBound(bucket) + ";" + n);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Repair of log files left over by a crash while writing through {@link MappedFileOutputStream}.
+ * <p>
+ * Such files still carry the part suffix and end in zero filled, pre-allocated space or a
+ * partially written record. The valid length is found according to the log format, the file is
+ * truncated after the last complete record and renamed to its final name.
+ */
+public final class LogRecovery {
+    protected static final String TAG = "LogRecovery";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private LogRecovery() {
+    }
+
+    /**
+     * Repair all unfinished log files of a directory
+     *
+     * @param directory The log directory
+     * @return Number of files repaired
+     */
+    public static int recoverDirectory(File directory) {
+        int recovered = 0;
+        for (File file : findUnfinished(directory)) {
+            if (tryRecover(file) != null) {
+                recovered++;
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * List the unfinished log files of a directory. Cheap enough to call before opening a new
+     * log file, so the files to recover never include one being written by this process.
+     *
+     * @param directory The log directory
+     * @return The unfinished files, empty if none
+     */
+    public static List<File> findUnfinished(File directory) {
+        List<File> unfinished = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return unfinished;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(MappedFileOutputStream.PART_SUFFIX)) {
+                unfinished.add(file);
+            }
+        }
+        return unfinished;
+    }
+
+    /**
+     * Repair unfinished log files on a low priority background thread, returns immediately.
+     * Repairing a binary log decodes every record, which takes seconds for a long session.
+     *
+     * @param partFiles The unfinished log files
+     */
+    public static void recoverInBackground(final List<File> partFiles) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (File file : partFiles) {
+                    tryRecover(file);
+                }
+            }
+        }, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Repair an unfinished log file, logging the result
+     *
+     * @param partFile The unfinished log file
+     * @return The recovered file, or null on error
+     */
+    static File tryRecover(File partFile) {
+        try {
+            long length = recover(partFile);
+            CoreLog.i(TAG, "Recovered " + length + " bytes of log file: " + partFile.toString());
+            return finishedFile(partFile);
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error recovering log file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Truncate an unfinished log file after the last valid record and remove the part suffix
+     *
+     * @param partFile The unfinished log file
+     * @return The length of the recovered file
+     * @throws IOException If reading or writing the file fails
+     */
+    public static long recover(File partFile) throws IOException {
+        File file = finishedFile(partFile);
+
+        long length;
+        if (file.getName().endsWith("." + BinaryLogEncoder.FILE_EXTENSION)) {
+            length = validBinaryLength(partFile);
+        } else {
+            length = validTextLength(partFile);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(partFile, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (!partFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + partFile + " to " + file);
+        }
+        return length;
+    }
+
+    private static File finishedFile(File partFile) {
+        String path = partFile.getPath();
+        return new File(path.substring(0, path.length() - MappedFileOutputStream.PART_SUFFIX.length()));
+    }
+
+    /**
+     * Length of a binary log up to the last complete record
+     *
+     * @param file The binary log file
+     * @return The valid length in bytes
+     * @throws IOException If reading fails
+     */
+    static long validBinaryLength(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            BinaryLogReader reader;
+            try {
+                reader = new BinaryLogReader(in);
+            } catch (IOException e) {
+                // header not completely written
+                return 0;
+            }
+            while (reader.next()) {
+                // skip to end
+            }
+            return reader.getValidLength();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Length of a text log up to the end of the last complete line
+     *
+     * @param file The text log file
+     * @return The valid length in bytes
+     * @throws IOException If reading fails
+     */
+    static long validTextLength(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // search backwards for the last line end, skipping the zero filled space
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long end = randomAccessFile.length();
+            while (end > 0) {
+                int n = (int) Math.min(buffer.length, end);
+                long start = end - n;
+                randomAccessFile.seek(start);
+                randomAccessFile.readFully(buffer, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buffer[i] == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archiver of closed log file segments.
+ * <p>
+ * Segments are gzip compressed one after the other on a low priority background thread and
+ * listed in a manifest file with their time ranges, in the order they were closed. The manifest
+ * is a CSV file with the columns: file name, wall clock time the segment was opened and closed
+ * in milliseconds, timestamp of the first and last row, number of rows and archived file size.
+ * Segments without rows, e.g. the last one when closing right after a rotation, have first and
+ * last timestamp 0. Log files recovered after a crash are listed with opened time, timestamps
+ * and number of rows 0, as they are not known.
+ */
+public class LogSegmentArchiver {
+    protected static final String TAG = "LogSegmentArchiver";
+
+    /**
+     * Extension appended to compressed segments
+     */
+    public static final String COMPRESSED_EXTENSION = ".gz";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File manifestFile;
+    private final boolean compress;
+    private final ExecutorService executor;
+
+    /**
+     * Create an archiver
+     *
+     * @param manifestFile The manifest file to append the segments to
+     * @param compress     Whether to compress the segments
+     */
+    public LogSegmentArchiver(File manifestFile, boolean compress) {
+        this.manifestFile = manifestFile;
+        this.compress = compress;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a closed segment for archiving, returns immediately
+     *
+     * @param segment        The closed segment file
+     * @param openedMillis   Wall clock time the segment was opened
+     * @param closedMillis   Wall clock time the segment was closed
+     * @param firstTimestamp Timestamp of the first row
+     * @param lastTimestamp  Timestamp of the last row
+     * @param rows           Number of rows in the segment
+     */
+    public void archive(final File segment, final long openedMillis, final long closedMillis,
+                        final long firstTimestamp, final long lastTimestamp, final long rows) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File archived = compress ? compress(segment) : segment;
+                appendManifest(archived, openedMillis, closedMillis, firstTimestamp, lastTimestamp, rows);
+            }
+        });
+    }
+
+    /**
+     * Queue unfinished log files left over by a crash for recovery and archiving, returns
+     * immediately. They are repaired on the archiver thread before the segments closed later.
+     *
+     * @param partFiles The unfinished log files, not written to by this process
+     */
+    public void recover(final List<File> partFiles) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File partFile : partFiles) {
+                    File recovered = LogRecovery.tryRecover(partFile);
+                    if (recovered != null) {
+                        File archived = compress ? compress(recovered) : recovered;
+                        appendManifest(archived, 0, recovered.lastModified(), 0, 0, 0);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Finish archiving the queued segments in the background and stop the thread afterwards
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait until all queued segments are archived after shutdown()
+     *
+     * @param timeoutMs Max time to wait in milliseconds
+     * @return true if done, false on timeout
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * Compress a file and delete the original
+     *
+     * @param file The file to compress
+     * @return The compressed file, or the original file if compression failed
+     */
+    static File compress(File file) {
+        File compressed = new File(file.getPath() + COMPRESSED_EXTENSION);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), BUFFER_SIZE);
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error compressing log file: " + e.getMessage());
+            if (compressed.exists() && !compressed.delete()) {
+                CoreLog.e(TAG, "Failed to delete " + compressed.toString());
+            }
+            return file;
+        }
+
+        if (!file.delete()) {
+            CoreLog.e(TAG, "Failed to delete " + file.toString());
+        }
+        return compressed;
+    }
+
+    private void appendManifest(File segment, long openedMillis, long closedMillis,
+                                long firstTimestamp, long lastTimestamp, long rows) {
+        char delimiter = BLEDeviceLog.CSV_DELIMITER;
+        StringBuilder line = new StringBuilder();
+        if (!manifestFile.exists()) {
+            line.append("file").append(delimiter).append("opened").append(delimiter)
+                    .append("closed").append(delimiter).append("first_time").append(delimiter)
+                    .append("last_time").append(delimiter).append("rows").append(delimiter)
+                    .append("bytes").append('\n');
+        }
+        line.append(segment.getName()).append(delimiter)
+                .append(openedMillis).append(delimiter)
+                .append(closedMillis).append(delimiter)
+                .append(firstTimestamp).append(delimiter)
+                .append(lastTimestamp).append(delimiter)
+                .append(rows).append(delimiter)
+                .append(segment.length()).append('\n');
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile, true), "UTF-8");
+            try {
+                writer.write(line.toString());
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error writing manifest file: " + e.getMessage());
+        }
+    }
+}
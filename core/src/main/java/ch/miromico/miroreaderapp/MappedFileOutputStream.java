@@ -0,0 +1,189 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only file output stream writing through memory mapped file segments.
+ * <p>
+ * The file is grown by pre-allocated segments that are mapped into memory, so writes are plain
+ * memory copies without a system call per write. Once a segment is full the next one is mapped.
+ * Data written is in the page cache immediately and survives a crash of the app, flush() forces
+ * it to storage. While open, the file carries the suffix {@link #PART_SUFFIX} and its tail is
+ * zero filled. On close it is truncated to the written length and renamed to its final name;
+ * files left over by a crash are repaired by {@link LogRecovery}. Not thread safe.
+ */
+public class MappedFileOutputStream extends OutputStream {
+    /**
+     * Suffix of files being written
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Default size of the mapped segments
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private final File file;
+    private final File partFile;
+    private final int segmentSize;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    private MappedByteBuffer segment = null;
+    private long segmentStart = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a file and map the first segment
+     *
+     * @param file        The final file name
+     * @param segmentSize Number of bytes mapped at once
+     * @throws IOException If the file cannot be created or mapped
+     */
+    public MappedFileOutputStream(File file, int segmentSize) throws IOException {
+        this.file = file;
+        this.partFile = new File(file.getPath() + PART_SUFFIX);
+        this.segmentSize = segmentSize;
+        this.randomAccessFile = new RandomAccessFile(partFile, "rw");
+        this.channel = randomAccessFile.getChannel();
+        try {
+            randomAccessFile.setLength(0);
+            mapSegment(0);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!segment.hasRemaining()) {
+            mapSegment(segmentStart + segmentSize);
+        }
+        segment.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!segment.hasRemaining()) {
+                mapSegment(segmentStart + segmentSize);
+            }
+            int n = Math.min(len, segment.remaining());
+            segment.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Force the data written so far to storage
+     */
+    @Override
+    public void flush() {
+        segment.force();
+    }
+
+    /**
+     * Truncate the file to the written length and rename it to the final name
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long length = getLength();
+        segment.force();
+        segment = null;
+        try {
+            channel.truncate(length);
+        } finally {
+            randomAccessFile.close();
+        }
+        if (!partFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + partFile + " to " + file);
+        }
+    }
+
+    /**
+     * Number of bytes written
+     *
+     * @return The file length
+     */
+    public long getLength() {
+        return segmentStart + segment.position();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void mapSegment(long start) throws IOException {
+        // flush() only forces the current segment, write back the full one before dropping it
+        if (segment != null) {
+            segment.force();
+        }
+        // grow file first, mapping beyond the end is not defined on all platforms
+        randomAccessFile.setLength(start + segmentSize);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+        segmentStart = start;
+    }
+}
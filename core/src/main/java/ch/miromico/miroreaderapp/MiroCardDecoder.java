@@ -0,0 +1,165 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+/**
+ * Decoder of the MiroCard advertisement data.
+ * <p>
+ * The sensor data block starts after a 3 byte header and consists of a 4 byte timestamp (little
+ * endian) followed by the sensor values. The timestamp field identifies the packet format:
+ * <ul>
+ * <li>0xFDFCFBFA: personal MiroCard without sensor data</li>
+ * <li>0xABABABAB: MiroCard with message type byte and temperature/humidity, light and
+ * acceleration data as indicated by the message type</li>
+ * <li>any other value: transient BLE sensor V2 (old data format) with temperature/humidity</li>
+ * </ul>
+ * Decoding reads the raw record in place and does not keep any state.
+ */
+public final class MiroCardDecoder {
+    /**
+     * Key values of the timestamp field
+     */
+    public static final int TIMESTAMP_PERSONAL = 0xFDFCFBFA;
+    public static final int TIMESTAMP_MIROCARD = 0xABABABAB;
+
+    /**
+     * Data block offset and size within the advertisement record
+     */
+    public static final int DATA_OFFSET = 3;
+    public static final int DATA_SIZE = 14;
+
+    /**
+     * Header: 3bytes + Timestamp: 4 bytes + MSGTYPE: 1 bytes
+     */
+    private static final int MIN_RECORD_SIZE = 9;
+
+    private MiroCardDecoder() {
+    }
+
+    /**
+     * Decode the sensor data of an advertisement record
+     *
+     * @param record The raw advertisement record bytes
+     * @return The decoded sample, never null
+     */
+    public static MiroCardSample decode(byte[] record) {
+        if (record == null || record.length < MIN_RECORD_SIZE) {
+            return MiroCardSample.NONE;
+        }
+        if (record.length < DATA_OFFSET + DATA_SIZE) {
+            return MiroCardSample.INVALID;
+        }
+
+        final int o = DATA_OFFSET;
+        int timestamp = (record[o] & 0xFF) | ((record[o + 1] & 0xFF) << 8)
+                | ((record[o + 2] & 0xFF) << 16) | ((record[o + 3] & 0xFF) << 24);
+
+        // special key used in the MiroCard prototypes
+        if (timestamp == TIMESTAMP_PERSONAL) {
+            return new MiroCardSample(MiroCardSample.KIND_PERSONAL, timestamp, 0,
+                    0, 0, 0, 0, 0, 0);
+        }
+
+        // not a MiroCard sensor, assume it is a transient BLE sensor V2 (old data format)
+        if (timestamp != TIMESTAMP_MIROCARD) {
+            int humidity_raw = (record[o + 4] & 0xFF) | ((record[o + 5] & 0x03) << 8);
+            int temperature_raw = ((record[o + 5] & 0xFC) >> 2) | ((record[o + 6] & 0xFF) << 6);
+            return new MiroCardSample(MiroCardSample.KIND_SENSOR_V2, timestamp,
+                    MiroCardSample.TEMP_RH, convertTemperature(temperature_raw),
+                    convertHumidity(humidity_raw), 0, 0, 0, 0);
+        }
+
+        // new data format with message type
+        int messageType = record[o + 4] & 0xFF;
+        float temperature = 0;
+        float humidity = 0;
+        float light = 0;
+        float accX = 0;
+        float accY = 0;
+        float accZ = 0;
+
+        if ((messageType & MiroCardSample.TEMP_RH) == MiroCardSample.TEMP_RH) {
+            int humidity_raw = (record[o + 5] & 0xFF) | ((record[o + 6] & 0x03) << 8);
+            int temperature_raw = ((record[o + 6] & 0xFC) >> 2) | ((record[o + 7] & 0xFF) << 6);
+            temperature = convertTemperature(temperature_raw);
+            humidity = convertHumidity(humidity_raw);
+        }
+        if ((messageType & MiroCardSample.LIGHT) == MiroCardSample.LIGHT) {
+            int light_raw = (record[o + 8] & 0xFF) | ((record[o + 9] & 0xFF) << 8);
+            light = (float) light_raw / 10;
+        }
+        if ((messageType & MiroCardSample.ACC) == MiroCardSample.ACC) {
+            int accX_raw = (record[o + 10] & 0xFF) | ((record[o + 11] & 0x03) << 8);
+            int accY_raw = ((record[o + 11] & 0xFF) >> 2) | ((record[o + 12] & 0xF0) << 2);
+            int accZ_raw = ((record[o + 12] & 0x0F)) | ((record[o + 13] & 0xFF) << 4);
+            accX = convertAcceleration(accX_raw);
+            accY = convertAcceleration(accY_raw);
+            accZ = convertAcceleration(accZ_raw);
+        }
+
+        return new MiroCardSample(MiroCardSample.KIND_MIROCARD, timestamp, messageType,
+                temperature, humidity, light, accX, accY, accZ);
+    }
+
+    private static float convertTemperature(int raw) {
+        return -40.0f + (float) raw / 100.0f;
+    }
+
+    private static float convertHumidity(int raw) {
+        return (float) raw / 10.0f;
+    }
+
+    private static float convertAcceleration(int raw) {
+        return -2.0f + (float) raw / 100.0f;
+    }
+}
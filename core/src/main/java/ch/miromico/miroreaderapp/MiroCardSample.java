@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+/**
+ * Immutable sensor sample decoded from a single MiroCard advertisement.
+ * <p>
+ * All values are decoded once when the packet is received, see {@link MiroCardDecoder}. Which of
+ * the sensor values are valid is indicated by the message type bitmask.
+ */
+public final class MiroCardSample {
+    /**
+     * Message type flags of the sensor data contained in the packet
+     */
+    public static final int ALL = 0xFF;
+    public static final int TEMP_RH = 0x01;
+    public static final int LIGHT = 0x02;
+    public static final int ACC = 0x04;
+
+    /**
+     * Packet kinds distinguished by the timestamp field
+     */
+    public static final int KIND_NONE = 0;
+    public static final int KIND_INVALID = 1;
+    public static final int KIND_PERSONAL = 2;
+    public static final int KIND_SENSOR_V2 = 3;
+    public static final int KIND_MIROCARD = 4;
+
+    /**
+     * Shared samples for packets without decodable data
+     */
+    static final MiroCardSample NONE = new MiroCardSample(KIND_NONE, 0, 0, 0, 0, 0, 0, 0, 0);
+    static final MiroCardSample INVALID = new MiroCardSample(KIND_INVALID, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final int kind;
+    private final int timestamp;
+    private final int messageType;
+    private final float temperature;
+    private final float humidity;
+    private final float light;
+    private final float accX;
+    private final float accY;
+    private final float accZ;
+
+    MiroCardSample(int kind, int timestamp, int messageType, float temperature, float humidity,
+                   float light, float accX, float accY, float accZ) {
+        this.kind = kind;
+        this.timestamp = timestamp;
+        this.messageType = messageType;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.light = light;
+        this.accX = accX;
+        this.accY = accY;
+        this.accZ = accZ;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Check whether the sample contains decoded data
+     *
+     * @return true for personal cards and sensor packets
+     */
+    public boolean isValid() {
+        return kind >= KIND_PERSONAL;
+    }
+
+    /**
+     * Check whether the sample contains all sensor values of a message type
+     *
+     * @param flags Message type flags to test
+     * @return true if all flags are set
+     */
+    public boolean has(int flags) {
+        return (messageType & flags) == flags;
+    }
+
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public float getTemperature() {
+        return temperature;
+    }
+
+    public float getHumidity() {
+        return humidity;
+    }
+
+    public float getLight() {
+        return light;
+    }
+
+    public float getAccX() {
+        return accX;
+    }
+
+    public float getAccY() {
+        return accY;
+    }
+
+    public float getAccZ() {
+        return accZ;
+    }
+}
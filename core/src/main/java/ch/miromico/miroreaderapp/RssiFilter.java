@@ -0,0 +1,280 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+/**
+ * Streaming filter of the signal strength of each device, applied by {@link BLEDeviceLog} at
+ * ingest.
+ * <p>
+ * The filter state is kept in primitive fields of the device observations and carried over from
+ * one observation of a device to the next, so an update is O(1) and does not allocate. Besides
+ * the smoothed RSSI and its variance, the proximity band of the device is derived with a log
+ * distance path loss model. Not thread safe, configure on the thread adding the observations.
+ */
+public class RssiFilter {
+    protected static final String TAG = "RssiFilter";
+
+    /**
+     * Filters, named by their preference value
+     */
+    public static final String FILTER_NONE = "none";
+    public static final String FILTER_EWMA = "ewma";
+    public static final String FILTER_KALMAN = "kalman";
+
+    /**
+     * Proximity bands
+     */
+    public static final int PROXIMITY_UNKNOWN = 0;
+    public static final int PROXIMITY_IMMEDIATE = 1;
+    public static final int PROXIMITY_NEAR = 2;
+    public static final int PROXIMITY_FAR = 3;
+
+    /**
+     * Default path loss model, RSSI at 1 m of a typical beacon in free space
+     */
+    public static final int DEFAULT_MEASURED_POWER = -59;
+    public static final float DEFAULT_PATH_LOSS_EXPONENT = 2.0f;
+
+    /**
+     * Valid range of received signal strength values [dBm]
+     */
+    private static final int RSSI_MIN = -127;
+    private static final int RSSI_MAX = 20;
+
+    private static final int MODE_NONE = 0;
+    private static final int MODE_EWMA = 1;
+    private static final int MODE_KALMAN = 2;
+
+    private String filter = FILTER_EWMA;
+    private int mode = MODE_EWMA;
+
+    /**
+     * Weight of a new sample in the moving average
+     */
+    private float ewmaWeight = 0.25f;
+    /**
+     * Kalman filter noise, process noise per second of elapsed time and measurement noise [dB^2]
+     */
+    private float processNoise = 2f;
+    private float measurementNoise = 16f;
+
+    /**
+     * Path loss model and the proximity band limits
+     */
+    private int measuredPower = DEFAULT_MEASURED_POWER;
+    private float pathLossExponent = DEFAULT_PATH_LOSS_EXPONENT;
+    private float immediateDistance = 0.5f;
+    private float nearDistance = 3f;
+
+    /**
+     * Band limits converted to signal strength, so no distance is computed per observation
+     */
+    private float immediateRssi;
+    private float nearRssi;
+
+    public RssiFilter() {
+        updateBandLimits();
+    }
+
+    /**
+     * Set the filter applied to new observations
+     *
+     * @param filter The filter, {@link #FILTER_NONE} to use the raw values
+     */
+    public void setFilter(String filter) {
+        switch (filter) {
+            case FILTER_NONE:
+                this.mode = MODE_NONE;
+                break;
+            case FILTER_EWMA:
+                this.mode = MODE_EWMA;
+                break;
+            case FILTER_KALMAN:
+                this.mode = MODE_KALMAN;
+                break;
+            default:
+                CoreLog.w(TAG, "unknown filter " + filter + ", using " + FILTER_EWMA);
+                this.filter = FILTER_EWMA;
+                this.mode = MODE_EWMA;
+                return;
+        }
+        this.filter = filter;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set the weight of a new sample in the exponentially weighted moving average
+     *
+     * @param weight The weight between 0 and 1, larger values follow changes faster
+     */
+    public void setEwmaWeight(float weight) {
+        this.ewmaWeight = weight;
+    }
+
+    /**
+     * Set the noise variances of the Kalman filter
+     *
+     * @param processNoise     Expected change of the signal strength per second [dB^2/s]
+     * @param measurementNoise Variance of a single measurement [dB^2]
+     */
+    public void setKalmanNoise(float processNoise, float measurementNoise) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    /**
+     * Set the log distance path loss model, rssi = measuredPower - 10 * exponent * log10(distance)
+     *
+     * @param measuredPower Signal strength at 1 m [dBm]
+     * @param exponent      Path loss exponent, 2 in free space, up to 4 in crowded rooms
+     */
+    public void setPathLoss(int measuredPower, float exponent) {
+        this.measuredPower = measuredPower;
+        this.pathLossExponent = exponent;
+        updateBandLimits();
+    }
+
+    /**
+     * Set the upper limits of the proximity bands
+     *
+     * @param immediate Max distance of immediate devices [m]
+     * @param near      Max distance of near devices [m]
+     */
+    public void setProximityBands(float immediate, float near) {
+        this.immediateDistance = immediate;
+        this.nearDistance = near;
+        updateBandLimits();
+    }
+
+    /**
+     * Update the filter state of a device with a new observation
+     *
+     * @param last   The previous observation of the device, or null for a new device
+     * @param device The new observation, receives the updated state
+     */
+    public void update(BLEDevice last, BLEDevice device) {
+        int rssi = device.getRssi();
+        boolean known = last != null && last.proximity != PROXIMITY_UNKNOWN;
+        if (rssi < RSSI_MIN || rssi > RSSI_MAX) {
+            // no valid measurement, keep the previous estimate
+            if (known) {
+                device.smoothedRssi = last.smoothedRssi;
+                device.rssiVariance = last.rssiVariance;
+                device.proximity = last.proximity;
+            }
+            return;
+        }
+
+        float mean;
+        float variance;
+        if (!known || mode == MODE_NONE) {
+            mean = rssi;
+            variance = mode == MODE_KALMAN ? measurementNoise : 0;
+        } else if (mode == MODE_KALMAN) {
+            // the uncertainty grows with the time since the last measurement
+            long elapsed = device.getTimestamp() - last.getTimestamp();
+            float predicted = last.rssiVariance + (elapsed > 0 ? processNoise * elapsed * 1e-9f : 0);
+            float gain = predicted / (predicted + measurementNoise);
+            mean = last.smoothedRssi + gain * (rssi - last.smoothedRssi);
+            variance = (1 - gain) * predicted;
+        } else {
+            float diff = rssi - last.smoothedRssi;
+            mean = last.smoothedRssi + ewmaWeight * diff;
+            variance = (1 - ewmaWeight) * (last.rssiVariance + ewmaWeight * diff * diff);
+        }
+
+        device.smoothedRssi = mean;
+        device.rssiVariance = variance;
+        device.proximity = mean >= immediateRssi ? PROXIMITY_IMMEDIATE
+                : mean >= nearRssi ? PROXIMITY_NEAR : PROXIMITY_FAR;
+    }
+
+    /**
+     * Estimate the distance of a device from its smoothed signal strength
+     *
+     * @param device The device observation
+     * @return The distance in meters, or NaN if the device has no estimate
+     */
+    public double getDistance(BLEDevice device) {
+        if (device.proximity == PROXIMITY_UNKNOWN) {
+            return Double.NaN;
+        }
+        return Math.pow(10, (measuredPower - device.smoothedRssi) / (10 * pathLossExponent));
+    }
+
+    /**
+     * Get the display name of a proximity band
+     *
+     * @param proximity The proximity band
+     * @return The name
+     */
+    public static String proximityName(int proximity) {
+        switch (proximity) {
+            case PROXIMITY_IMMEDIATE:
+                return "immediate";
+            case PROXIMITY_NEAR:
+                return "near";
+            case PROXIMITY_FAR:
+                return "far";
+            default:
+                return "unknown";
+        }
+    }
+
+    private void updateBandLimits() {
+        immediateRssi = (float) (measuredPower - 10 * pathLossExponent * Math.log10(immediateDistance));
+        nearRssi = (float) (measuredPower - 10 * pathLossExponent * Math.log10(nearDistance));
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.miromico.miroreaderapp;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Devices of the device table sorted by a display order, maintained incrementally.
+ * <p>
+ * The devices are kept in a sorted array. An updated device stays in place if its neighbours are
+ * still in order, otherwise only the entries between its old and new position are shifted, so
+ * there is no re-sort per update. Devices with the same sort value are ordered by address, so
+ * every device has a unique position. Not thread safe.
+ */
+public class SortedDeviceIndex {
+    /**
+     * Display orders, named by their preference value
+     */
+    public static final String ORDER_INSERTION = "insertion";
+    public static final String ORDER_RSSI = "rssi";
+    public static final String ORDER_LAST_SEEN = "last_seen";
+    public static final String ORDER_NAME = "name";
+    public static final String ORDER_TEMPERATURE = "temperature";
+
+    private static final Comparator<BLEDevice> BY_RSSI = new Comparator<BLEDevice>() {
+        @Override
+        public int compare(BLEDevice a, BLEDevice b) {
+            // strongest first, smoothed to keep the order stable
+            return Float.compare(b.getSmoothedRssi(), a.getSmoothedRssi());
+        }
+    };
+
+    private static final Comparator<BLEDevice> BY_LAST_SEEN = new Comparator<BLEDevice>() {
+        @Override
+        public int compare(BLEDevice a, BLEDevice b) {
+            // most recent first
+            return compareLong(b.getTimestamp(), a.getTimestamp());
+        }
+    };
+
+    private static final Comparator<BLEDevice> BY_NAME = new Comparator<BLEDevice>() {
+        @Override
+        public int compare(BLEDevice a, BLEDevice b) {
+            // alphabetical, devices without name last
+            String x = a.getName();
+            String y = b.getName();
+            if (x == null || y == null) {
+                return x == null ? (y == null ? 0 : 1) : -1;
+            }
+            return x.compareToIgnoreCase(y);
+        }
+    };
+
+    private static final Comparator<BLEDevice> BY_TEMPERATURE = new Comparator<BLEDevice>() {
+        @Override
+        public int compare(BLEDevice a, BLEDevice b) {
+            // warmest first, devices without temperature last
+            boolean x = hasTemperature(a);
+            boolean y = hasTemperature(b);
+            if (!x || !y) {
+                return x == y ? 0 : (x ? -1 : 1);
+            }
+            return Float.compare(b.getSample().getTemperature(), a.getSample().getTemperature());
+        }
+    };
+
+    private String order = ORDER_INSERTION;
+    private Comparator<BLEDevice> comparator = null;
+    private BLEDevice[] sorted = new BLEDevice[64];
+    private int size = 0;
+
+    /**
+     * Get the comparator of a display order
+     *
+     * @param order The display order
+     * @return The comparator, or null for the insertion order
+     */
+    static Comparator<BLEDevice> comparatorOf(String order) {
+        switch (order) {
+            case ORDER_RSSI:
+                return BY_RSSI;
+            case ORDER_LAST_SEEN:
+                return BY_LAST_SEEN;
+            case ORDER_NAME:
+                return BY_NAME;
+            case ORDER_TEMPERATURE:
+                return BY_TEMPERATURE;
+            case ORDER_INSERTION:
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Change the display order and sort all devices once
+     *
+     * @param order   The display order, the index is disabled for ORDER_INSERTION
+     * @param devices The devices to index
+     */
+    public void setOrder(String order, List<BLEDevice> devices) {
+        this.order = order;
+        this.comparator = comparatorOf(order);
+        clear();
+        if (comparator == null) {
+            return;
+        }
+
+        size = devices.size();
+        if (sorted.length < size) {
+            sorted = new BLEDevice[Math.max(size, 2 * sorted.length)];
+        }
+        devices.toArray(sorted);
+        Arrays.sort(sorted, 0, size, new Comparator<BLEDevice>() {
+            @Override
+            public int compare(BLEDevice a, BLEDevice b) {
+                return SortedDeviceIndex.this.compare(a, b);
+            }
+        });
+    }
+
+    public String getOrder() {
+        return order;
+    }
+
+    /**
+     * Check whether the devices are indexed, i.e. the order is not the insertion order
+     *
+     * @return true if the index is maintained
+     */
+    public boolean isEnabled() {
+        return comparator != null;
+    }
+
+    /**
+     * Insert a new device or move an updated device to its new position
+     *
+     * @param previous The previous observation of the device contained in the index, or null
+     * @param device   The new observation
+     */
+    public void update(BLEDevice previous, BLEDevice device) {
+        if (comparator == null) {
+            return;
+        }
+        if (previous == null) {
+            insert(device);
+            return;
+        }
+
+        int p = indexOf(previous);
+        if (p < 0) {
+            insert(device);
+            return;
+        }
+
+        if (p + 1 < size && compare(device, sorted[p + 1]) > 0) {
+            // move towards the end, shift the passed entries back
+            int q = search(device, p + 1, size);
+            System.arraycopy(sorted, p + 1, sorted, p, q - p - 1);
+            sorted[q - 1] = device;
+        } else if (p > 0 && compare(device, sorted[p - 1]) < 0) {
+            // move towards the start, shift the passed entries on
+            int q = search(device, 0, p);
+            System.arraycopy(sorted, q, sorted, q + 1, p - q);
+            sorted[q] = device;
+        } else {
+            // still in order
+            sorted[p] = device;
+        }
+    }
+
+    /**
+     * Remove a device
+     *
+     * @param device The observation of the device contained in the index
+     */
+    public void remove(BLEDevice device) {
+        if (comparator == null) {
+            return;
+        }
+        int p = indexOf(device);
+        if (p >= 0) {
+            System.arraycopy(sorted, p + 1, sorted, p, size - p - 1);
+            sorted[--size] = null;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(sorted, 0, size, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a device by its position in the display order
+     *
+     * @param position The position
+     * @return The device
+     */
+    public BLEDevice get(int position) {
+        return sorted[position];
+    }
+
+    private void insert(BLEDevice device) {
+        if (size == sorted.length) {
+            sorted = Arrays.copyOf(sorted, 2 * size);
+        }
+        int q = search(device, 0, size);
+        System.arraycopy(sorted, q, sorted, q + 1, size - q);
+        sorted[q] = device;
+        size++;
+    }
+
+    private int indexOf(BLEDevice device) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(sorted[mid], device);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the insertion point of a device within a range of the sorted devices
+     */
+    private int search(BLEDevice device, int from, int to) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(sorted[mid], device) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compare(BLEDevice a, BLEDevice b) {
+        int c = comparator.compare(a, b);
+        return c != 0 ? c : compareLong(a.getAddressKey(), b.getAddressKey());
+    }
+
+    private static boolean hasTemperature(BLEDevice device) {
+        MiroCardSample sample = device.getSample();
+        return sample.getKind() == MiroCardSample.KIND_SENSOR_V2
+                || (sample.getKind() == MiroCardSample.KIND_MIROCARD && sample.has(MiroCardSample.TEMP_RH));
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
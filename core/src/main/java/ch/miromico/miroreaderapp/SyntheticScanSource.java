@@ -0,0 +1,344 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scan source generating MiroCard advertisements at a configurable rate, to stress test the
+ * processing pipeline without Bluetooth hardware.
+ * <p>
+ * A fixed set of devices advertises round robin, each device once per advertising interval,
+ * i.e. at a total rate of deviceCount / interval. Each device sends one of the payload formats
+ * chosen by the payload mix; the sensor values change with every tenth advertisement. The signal
+ * strength is normally distributed and a share of the packets can be malformed. Observations are
+ * time stamped with their scheduled send time, so the delay until processing includes any
+ * backlog of the generator. Results are delivered on the generator thread.
+ */
+public class SyntheticScanSource implements ScanSource {
+    protected static final String TAG = "SyntheticScanSource";
+
+    /**
+     * Payload formats, see {@link MiroCardDecoder}
+     */
+    public static final int PAYLOAD_SENSOR_V2 = 0;
+    public static final int PAYLOAD_MIROCARD = 1;
+    public static final int PAYLOAD_PERSONAL = 2;
+
+    /**
+     * Size of the generated advertisement records, legacy advertisements are zero padded
+     */
+    private static final int RECORD_SIZE = 31;
+    /**
+     * First address of the generated devices
+     */
+    private static final long BASE_ADDRESS = 0x1804EDF00000L;
+    /**
+     * Number of advertisements after which the sensor values of a device change
+     */
+    private static final int VALUE_CHANGE_INTERVAL = 10;
+
+    private final int deviceCount;
+    private final long intervalNanos;
+
+    private int[] payloadMix = {1, 1, 1};
+    private int rssiMean = -70;
+    private int rssiDeviation = 10;
+    private double malformedRate = 0;
+    private int batchSize = 1;
+    private long seed = 1;
+
+    private volatile Thread thread = null;
+    private volatile long delivered = 0;
+
+    /**
+     * Create a load generator
+     *
+     * @param deviceCount   Number of simulated devices
+     * @param intervalNanos Advertising interval of each device in nanoseconds
+     */
+    public SyntheticScanSource(int deviceCount, long intervalNanos) {
+        if (deviceCount <= 0 || intervalNanos <= 0) {
+            throw new IllegalArgumentException("device count and interval must be positive");
+        }
+        this.deviceCount = deviceCount;
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Create a load generator for a total advertisement rate
+     *
+     * @param deviceCount Number of simulated devices
+     * @param rate        Total rate in advertisements per second
+     * @return The load generator
+     */
+    public static SyntheticScanSource withRate(int deviceCount, int rate) {
+        return new SyntheticScanSource(deviceCount, 1000000000L * deviceCount / rate);
+    }
+
+    /**
+     * Set the relative share of the payload formats among the devices
+     *
+     * @param sensorV2 Weight of transient BLE sensors V2 (old data format)
+     * @param miroCard Weight of MiroCards with sensor data
+     * @param personal Weight of personal MiroCards
+     */
+    public void setPayloadMix(int sensorV2, int miroCard, int personal) {
+        if (sensorV2 < 0 || miroCard < 0 || personal < 0 || sensorV2 + miroCard + personal == 0) {
+            throw new IllegalArgumentException("invalid payload mix");
+        }
+        payloadMix = new int[]{sensorV2, miroCard, personal};
+    }
+
+    /**
+     * Set the distribution of the received signal strength
+     *
+     * @param mean      Mean RSSI in dBm
+     * @param deviation Standard deviation in dB
+     */
+    public void setRssi(int mean, int deviation) {
+        this.rssiMean = mean;
+        this.rssiDeviation = deviation;
+    }
+
+    /**
+     * Set the share of truncated or otherwise malformed advertisement records
+     *
+     * @param rate Share between 0 and 1
+     */
+    public void setMalformedRate(double rate) {
+        this.malformedRate = rate;
+    }
+
+    /**
+     * Deliver the advertisements in batches, like a scanner with report delay does
+     *
+     * @param batchSize Number of advertisements per batch, 1 to deliver each one immediately
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Set the seed of the random generator, runs with the same seed generate the same packets
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Total advertisement rate
+     *
+     * @return Advertisements per second
+     */
+    public double getRate() {
+        return deviceCount * 1e9 / intervalNanos;
+    }
+
+    /**
+     * Number of advertisements delivered since the last start
+     *
+     * @return The advertisement count
+     */
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (thread != null) {
+            throw new IllegalStateException("generator is running already");
+        }
+        delivered = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate(listener);
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        thread = null;
+        t.interrupt();
+        if (t == Thread.currentThread()) {
+            // stopped by the listener, generation ends after the callback returns
+            return;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void generate(Listener listener) {
+        Random random = new Random(seed);
+        String[] addresses = new String[deviceCount];
+        int[] payloads = new int[deviceCount];
+        int[] sequence = new int[deviceCount];
+        int total = payloadMix[0] + payloadMix[1] + payloadMix[2];
+        for (int i = 0; i < deviceCount; i++) {
+            addresses[i] = MacAddress.format(BASE_ADDRESS + i);
+            int pick = random.nextInt(total);
+            payloads[i] = pick < payloadMix[0] ? PAYLOAD_SENSOR_V2
+                    : pick < payloadMix[0] + payloadMix[1] ? PAYLOAD_MIROCARD : PAYLOAD_PERSONAL;
+        }
+
+        long start = System.nanoTime();
+        List<BLEDevice> batch = new ArrayList<>(batchSize);
+        for (long packet = 0; !Thread.currentThread().isInterrupted(); packet++) {
+            // schedule relative to the start to keep the long term rate exact
+            long due = start + packet * intervalNanos / deviceCount;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+
+            int device = (int) (packet % deviceCount);
+            int values = sequence[device]++ / VALUE_CHANGE_INTERVAL;
+            byte[] record = record(payloads[device], values, random);
+            int rssi = (int) Math.round(rssiMean + rssiDeviation * random.nextGaussian());
+            String name = payloads[device] == PAYLOAD_SENSOR_V2 ? null : "MiroCard";
+            batch.add(new BLEDevice(name, addresses[device], due, rssi, record));
+
+            if (batch.size() >= batchSize) {
+                if (batchSize == 1) {
+                    listener.onScanResult(batch.get(0));
+                    batch.clear();
+                } else {
+                    listener.onBatchScanResults(batch);
+                    // the listener may keep the delivered list
+                    batch = new ArrayList<>(batchSize);
+                }
+                delivered += batchSize;
+            }
+        }
+    }
+
+    /**
+     * Generate an advertisement record
+     *
+     * @param payload The payload format
+     * @param values  Sequence number of the sensor values
+     * @param random  The random generator
+     * @return The record
+     */
+    private byte[] record(int payload, int values, Random random) {
+        byte[] record = new byte[RECORD_SIZE];
+        // manufacturer specific data structure of the data block
+        record[0] = (byte) (MiroCardDecoder.DATA_OFFSET + MiroCardDecoder.DATA_SIZE - 1);
+        record[1] = (byte) AdvertisementParser.TYPE_MANUFACTURER_DATA;
+
+        // temperature between 15 and 30 deg C, humidity between 30 and 60 %
+        int temperature = 5500 + (values * 37) % 1500;
+        int humidity = 300 + (values * 13) % 300;
+        int o = MiroCardDecoder.DATA_OFFSET;
+        switch (payload) {
+            case PAYLOAD_PERSONAL:
+                putInt(record, o, MiroCardDecoder.TIMESTAMP_PERSONAL);
+                break;
+            case PAYLOAD_MIROCARD:
+                putInt(record, o, MiroCardDecoder.TIMESTAMP_MIROCARD);
+                record[o + 4] = (byte) (MiroCardSample.TEMP_RH | MiroCardSample.LIGHT);
+                putSensor(record, o + 5, temperature, humidity);
+                record[o + 8] = (byte) (values * 10);
+                record[o + 9] = (byte) ((values * 10) >> 8);
+                break;
+            case PAYLOAD_SENSOR_V2:
+            default:
+                // sender timestamp in seconds
+                putInt(record, o, values * VALUE_CHANGE_INTERVAL);
+                putSensor(record, o + 4, temperature, humidity);
+                break;
+        }
+
+        if (malformedRate > 0 && random.nextDouble() < malformedRate) {
+            if (random.nextBoolean()) {
+                // record cut off within the data block
+                return Arrays.copyOf(record, 1 + random.nextInt(o + MiroCardDecoder.DATA_SIZE - 1));
+            }
+            // structure length exceeding the record
+            record[0] = (byte) (RECORD_SIZE + random.nextInt(100));
+        }
+        return record;
+    }
+
+    private static void putInt(byte[] record, int offset, int value) {
+        record[offset] = (byte) value;
+        record[offset + 1] = (byte) (value >> 8);
+        record[offset + 2] = (byte) (value >> 16);
+        record[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static void putSensor(byte[] record, int offset, int temperatureRaw, int humidityRaw) {
+        // 10 bit humidity followed by 14 bit temperature, little endian
+        record[offset] = (byte) humidityRaw;
+        record[offset + 1] = (byte) (((humidityRaw >> 8) & 0x03) | ((temperatureRaw & 0x3F) << 2));
+        record[offset + 2] = (byte) (temperatureRaw >> 6);
+    }
+}
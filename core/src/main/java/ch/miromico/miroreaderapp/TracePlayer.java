@@ -0,0 +1,223 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scan source replaying a recorded CSV or binary log, e.g. to reproduce the conditions of a field
+ * log or to benchmark the processing pipeline without Bluetooth hardware.
+ * <p>
+ * The observations are replayed on a separate thread, paced by the logged timestamps scaled by
+ * the replay speed, or as fast as possible. Each observation is time stamped with its replay
+ * time, so device expiry and the UI behave as for a live scan.
+ */
+public class TracePlayer implements ScanSource {
+    protected static final String TAG = "TracePlayer";
+
+    /**
+     * Replay speed to deliver the observations as fast as possible
+     */
+    public static final double SPEED_MAX = 0;
+
+    /**
+     * Max number of observations delivered in a batch when replaying as fast as possible
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final File trace;
+    private final double speed;
+
+    private volatile Thread thread = null;
+    private volatile long delivered = 0;
+
+    /**
+     * Create a trace player
+     *
+     * @param trace The CSV or binary log to replay
+     * @param speed Replay speed relative to the recording, e.g. 1 for real time, or SPEED_MAX
+     */
+    public TracePlayer(File trace, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("negative replay speed");
+        }
+        this.trace = trace;
+        this.speed = speed;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (thread != null) {
+            throw new IllegalStateException("replay is running already");
+        }
+        delivered = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay(listener);
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        thread = null;
+        t.interrupt();
+        if (t == Thread.currentThread()) {
+            // stopped by the listener, the replay ends after the callback returns
+            return;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of observations delivered by the current or last replay
+     *
+     * @return The observation count
+     */
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    private void replay(Listener listener) {
+        TraceReader reader;
+        try {
+            reader = TraceReader.open(trace);
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Failed to open trace " + trace, e);
+            listener.onScanFailed(e.getMessage());
+            return;
+        }
+        try {
+            if (speed == SPEED_MAX) {
+                replayBatches(reader, listener);
+            } else {
+                replayPaced(reader, listener);
+            }
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Failed to read trace " + trace, e);
+            listener.onScanFailed(e.getMessage());
+            return;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                CoreLog.w(TAG, "Failed to close trace", e);
+            }
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            CoreLog.i(TAG, "Replayed " + delivered + " observations of " + trace);
+            listener.onScanFinished();
+        }
+    }
+
+    private void replayPaced(TraceReader reader, Listener listener) throws IOException {
+        long start = System.nanoTime();
+        long traceStart = 0;
+        BLEDevice device;
+        while ((device = reader.next()) != null) {
+            if (delivered == 0) {
+                traceStart = device.timestamp;
+            }
+            // wait until due, observations logged out of order are delivered right away
+            long due = start + (long) ((device.timestamp - traceStart) / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            device.timestamp = System.nanoTime();
+            listener.onScanResult(device);
+            delivered++;
+        }
+    }
+
+    private void replayBatches(TraceReader reader, Listener listener) throws IOException {
+        List<BLEDevice> batch = new ArrayList<>(BATCH_SIZE);
+        BLEDevice device;
+        while ((device = reader.next()) != null) {
+            device.timestamp = System.nanoTime();
+            batch.add(device);
+            if (batch.size() == BATCH_SIZE) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                listener.onBatchScanResults(batch);
+                delivered += batch.size();
+                // the listener may keep the delivered list
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            listener.onBatchScanResults(batch);
+            delivered += batch.size();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *
+ * Copyright (c) 2020, Andres Gomez, Miromico AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * Copyright (c) 2019, Swiss Federal Institute of Technology (ETH Zurich)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * * Neither the name of the copyright holder nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package ch.miromico.miroreaderapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Reader of the device observations of a CSV or binary log file, as written by the device log.
+ * <p>
+ * Observations keep their logged timestamps. CSV rows whose data column is not a hex record are
+ * returned with the data string only, malformed rows are skipped. Not thread safe.
+ */
+public class TraceReader implements Closeable {
+    protected static final String TAG = "TraceReader";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Placeholder written for missing values in CSV logs
+     */
+    private static final String NOT_AVAILABLE = "NA";
+
+    private final InputStream in;
+    private final BufferedReader csvReader;
+    private final BinaryLogReader binaryReader;
+
+    /**
+     * Open a log file, the format is taken from the file extension
+     *
+     * @param file The CSV or binary log
+     * @return The reader
+     * @throws IOException If the file cannot be opened or has an unknown format
+     */
+    public static TraceReader open(File file) throws IOException {
+        String name = file.getName();
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            return new TraceReader(in, format);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read a log from a stream
+     *
+     * @param in     The log stream, should be buffered
+     * @param format The log format, see {@link BLEDeviceLog#LOG_FORMAT_CSV} and
+     *               {@link BLEDeviceLog#LOG_FORMAT_BINARY}
+     * @throws IOException If reading fails or the format is unknown
+     */
+    public TraceReader(InputStream in, String format) throws IOException {
+        this.in = in;
+        if (BLEDeviceLog.LOG_FORMAT_CSV.equals(format)) {
+            csvReader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            binaryReader = null;
+        } else if (BLEDeviceLog.LOG_FORMAT_BINARY.equals(format)) {
+            csvReader = null;
+            binaryReader = new BinaryLogReader(in);
+        } else {
+            throw new IOException("Unknown log format: " + format);
+        }
+    }
+
+    /**
+     * Read the next observation
+     *
+     * @return The observation, or null at the end of the log
+     * @throws IOException If reading fails
+     */
+    public BLEDevice next() throws IOException {
+        if (binaryReader != null) {
+            return nextBinary();
+        }
+        String line;
+        while ((line = csvReader.readLine()) != null) {
+            BLEDevice device = parseRow(line);
+            if (device != null) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private BLEDevice nextBinary() throws IOException {
+        if (!binaryReader.next()) {
+            if (!binaryReader.isComplete()) {
+                CoreLog.w(TAG, "Log damaged after byte " + binaryReader.getValidLength());
+            }
+            return null;
+        }
+        byte[] record = binaryReader.getRecord();
+        if (record == null) {
+            return observation(binaryReader.getName(), binaryReader.getAddress(),
+                    binaryReader.getTimestamp(), binaryReader.getRssi(), binaryReader.getData());
+        }
+        return new BLEDevice(binaryReader.getName(), binaryReader.getAddress(),
+                binaryReader.getTimestamp(), binaryReader.getRssi(),
+                Arrays.copyOf(record, binaryReader.getRecordLength()));
+    }
+
+    /**
+     * Parse a CSV log row, i.e. time;address;RSSI;data;name
+     *
+     * @param line The row
+     * @return The observation, or null for the header and malformed rows
+     */
+    static BLEDevice parseRow(String line) {
+        int end1 = line.indexOf(BLEDeviceLog.CSV_DELIMITER);
+        int end2 = end1 < 0 ? -1 : line.indexOf(BLEDeviceLog.CSV_DELIMITER, end1 + 1);
+        int end3 = end2 < 0 ? -1 : line.indexOf(BLEDeviceLog.CSV_DELIMITER, end2 + 1);
+        int end4 = end3 < 0 ? -1 : line.indexOf(BLEDeviceLog.CSV_DELIMITER, end3 + 1);
+        if (end4 < 0) {
+            return null;
+        }
+        long timestamp;
+        int rssi;
+        try {
+            timestamp = Long.parseLong(line.substring(0, end1));
+            rssi = Integer.parseInt(line.substring(end2 + 1, end3));
+        } catch (NumberFormatException e) {
+            // header or damaged row
+            return null;
+        }
+        String address = nullIfNotAvailable(line.substring(end1 + 1, end2));
+        String data = nullIfNotAvailable(line.substring(end3 + 1, end4));
+        // the name is the last column and may contain the delimiter
+        String name = nullIfNotAvailable(line.substring(end4 + 1));
+
+        byte[] record = parseHex(data);
+        if (record == null) {
+            return observation(name, address, timestamp, rssi, data);
+        }
+        return new BLEDevice(name, address, timestamp, rssi, record);
+    }
+
+    /**
+     * Parse the hex representation of a record, see {@link AdvertisementParser#toHexString}
+     *
+     * @param data The hex string with comma separated AD structures
+     * @return The record bytes, or null if the string is not a hex record
+     */
+    static byte[] parseHex(String data) {
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+        byte[] record = new byte[data.length() / 2];
+        int length = 0;
+        int i = 0;
+        while (i < data.length()) {
+            if (data.charAt(i) == AdvertisementParser.HEX_BLOCK_SEPARATOR && i > 0) {
+                i++;
+                continue;
+            }
+            if (i + 1 >= data.length()) {
+                return null;
+            }
+            int high = Character.digit(data.charAt(i), 16);
+            int low = Character.digit(data.charAt(i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            record[length++] = (byte) ((high << 4) | low);
+            i += 2;
+        }
+        return Arrays.copyOf(record, length);
+    }
+
+    private static BLEDevice observation(String name, String address, long timestamp, int rssi,
+                                         String data) {
+        BLEDevice device = new BLEDevice(name, address, data);
+        device.timestamp = timestamp;
+        device.rssi = rssi;
+        return device;
+    }
+
+    private static String nullIfNotAvailable(String value) {
+        return NOT_AVAILABLE.equals(value) ? null : value;
+    }
+}
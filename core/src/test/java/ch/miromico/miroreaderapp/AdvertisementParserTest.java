@@ -0,0 +1,172 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the advertisement parser and the hex data formatting.
+ */
+public class AdvertisementParserTest {
+    /**
+     * Recorded MiroCard advertisement (flags + manufacturer data), zero padded to 31 bytes
+     */
+    private static final byte[] RECORD = {
+            0x02, 0x01, 0x06,
+            0x10, (byte) 0xFF, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, 0x07,
+            0x2C, (byte) 0x91, 0x3A, 0x1F, 0x00, 0x64, (byte) 0x80, 0x34, 0x12, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    private static final int PACKETS = 10000;
+
+    /**
+     * Reference implementation of the previous hex data formatting in BLEDevice
+     */
+    private static String legacyFormat(byte[] data_raw) {
+        String data = "";
+        int data_block_end = 0;
+        for (int i = 0; i < data_raw.length; i++) {
+            if (i == data_block_end) {
+                if (data_raw[i] == 0) {
+                    break;
+                }
+                data_block_end = i + data_raw[i] + 1;
+                if (i > 0) {
+                    data += ",";
+                }
+            }
+            data += String.format("%02x", data_raw[i]);
+        }
+        return data;
+    }
+
+    @Test
+    public void hexString_matchesLegacyFormat() {
+        assertEquals(legacyFormat(RECORD), AdvertisementParser.toHexString(RECORD));
+        assertEquals("020106,10ffabababab072c913a1f006480341200",
+                AdvertisementParser.toHexString(RECORD));
+
+        // truncated structure and negative length byte are printed like before
+        byte[] truncated = {0x02, 0x01, 0x06, 0x1F, (byte) 0xFF, 0x01};
+        assertEquals(legacyFormat(truncated), AdvertisementParser.toHexString(truncated));
+        byte[] negative = {0x02, 0x01, 0x06, (byte) 0x90, (byte) 0xFF, 0x01, 0x02};
+        assertEquals(legacyFormat(negative), AdvertisementParser.toHexString(negative));
+        assertEquals("", AdvertisementParser.toHexString(new byte[0]));
+    }
+
+    @Test
+    public void parser_walksStructures() {
+        AdvertisementParser parser = new AdvertisementParser().reset(RECORD);
+
+        assertTrue(parser.next());
+        assertEquals(AdvertisementParser.TYPE_FLAGS, parser.getType());
+        assertEquals(2, parser.getValueOffset());
+        assertEquals(1, parser.getValueLength());
+
+        assertTrue(parser.next());
+        assertEquals(AdvertisementParser.TYPE_MANUFACTURER_DATA, parser.getType());
+        assertEquals(5, parser.getValueOffset());
+        assertEquals(15, parser.getValueLength());
+        assertEquals(0xABAB, parser.getCompanyId());
+        assertEquals(7, parser.getPayloadOffset());
+        assertEquals(13, parser.getPayloadLength());
+
+        // zero padding terminates the record
+        assertFalse(parser.next());
+        assertFalse(parser.isMalformed());
+
+        assertTrue(parser.findManufacturerData());
+        assertEquals(5, parser.getValueOffset());
+        assertFalse(parser.findServiceData(-1));
+    }
+
+    @Test
+    public void parser_rejectsMalformedLength() {
+        byte[] record = {0x02, 0x01, 0x06, 0x1F, (byte) 0xFF, 0x01, 0x02};
+        AdvertisementParser parser = new AdvertisementParser().reset(record);
+
+        assertTrue(parser.next());
+        assertFalse(parser.next());
+        assertTrue(parser.isMalformed());
+        assertFalse(parser.findManufacturerData());
+        assertEquals(-1, parser.getCompanyId());
+    }
+
+    @Test
+    public void parser_findsServiceData() {
+        byte[] record = {0x02, 0x01, 0x06, 0x05, 0x16, (byte) 0xAA, (byte) 0xFE, 0x10, 0x20};
+        AdvertisementParser parser = new AdvertisementParser().reset(record);
+
+        assertTrue(parser.findServiceData(0xFEAA));
+        assertEquals(0xFEAA, parser.getServiceUuid16());
+        assertEquals(7, parser.getPayloadOffset());
+        assertEquals(2, parser.getPayloadLength());
+        assertFalse(parser.findServiceData(0x180F));
+    }
+
+    @Test
+    public void allocationPerPacket() {
+        // per thread allocation counters are a HotSpot extension, exact numbers are left to the
+        // JMH benchmarks with the GC profiler
+        Assume.assumeTrue(isAllocationCounterSupported());
+        AdvertisementParser parser = new AdvertisementParser();
+
+        // warm up all code paths
+        for (int i = 0; i < PACKETS; i++) {
+            legacyFormat(RECORD);
+            AdvertisementParser.toHexString(RECORD);
+            walk(parser, RECORD);
+        }
+
+        long legacy = allocatedBytes();
+        for (int i = 0; i < PACKETS; i++) {
+            legacyFormat(RECORD);
+        }
+        legacy = (allocatedBytes() - legacy) / PACKETS;
+
+        long hex = allocatedBytes();
+        for (int i = 0; i < PACKETS; i++) {
+            AdvertisementParser.toHexString(RECORD);
+        }
+        hex = (allocatedBytes() - hex) / PACKETS;
+
+        long parse = allocatedBytes();
+        int types = 0;
+        for (int i = 0; i < PACKETS; i++) {
+            types += walk(parser, RECORD);
+        }
+        parse = (allocatedBytes() - parse) / PACKETS;
+        assertEquals(AdvertisementParser.TYPE_FLAGS + AdvertisementParser.TYPE_MANUFACTURER_DATA,
+                types / PACKETS);
+
+        // tolerate stray allocations of the runtime during the measurement
+        assertTrue("in place parsing should not allocate, allocated " + parse, parse < 16);
+        assertTrue("hex formatting should allocate less than legacy formatting", hex < legacy);
+    }
+
+    private static int walk(AdvertisementParser parser, byte[] record) {
+        int types = 0;
+        parser.reset(record);
+        while (parser.next()) {
+            types += parser.getType();
+        }
+        return types;
+    }
+
+    private static boolean isAllocationCounterSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
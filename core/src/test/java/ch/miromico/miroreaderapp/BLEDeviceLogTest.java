@@ -0,0 +1,202 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the device log ingestion.
+ */
+public class BLEDeviceLogTest {
+
+    private static List<BLEDevice> batch(int count) {
+        List<BLEDevice> devices = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            devices.add(new BLEDevice("d" + i, MacAddress.format(0x1804ED610000L + i % 13),
+                    now + i, -i, null));
+        }
+        return devices;
+    }
+
+    @Test
+    public void addAll_matchesSingleAdds() {
+        List<BLEDevice> devices = batch(100);
+
+        BLEDeviceLog single = new BLEDeviceLog();
+        for (BLEDevice device : devices) {
+            single.add(device);
+        }
+        BLEDeviceLog batched = new BLEDeviceLog();
+        batched.addAll(devices);
+        single.publishSnapshot();
+        batched.publishSnapshot();
+
+        assertEquals(13, batched.getDeviceList().size());
+        assertEquals(single.getDeviceList(), batched.getDeviceList());
+        // latest observation of each device is kept
+        assertSame(devices.get(99), batched.getDeviceList().get(99 % 13));
+    }
+
+    @Test
+    public void snapshot_publishedOnlyOnChange() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        DeviceSnapshot empty = log.getSnapshot();
+        assertSame(DeviceSnapshot.EMPTY, empty);
+        assertFalse(log.publishSnapshot());
+
+        List<BLEDevice> devices = batch(20);
+        log.addAll(devices);
+        // readers keep the previous snapshot until publication
+        assertSame(empty, log.getSnapshot());
+        assertTrue(log.publishSnapshot());
+
+        DeviceSnapshot first = log.getSnapshot();
+        assertTrue(first.isChangedSince(empty.getVersion()));
+        assertEquals(13, first.size());
+        assertFalse(log.publishSnapshot());
+        assertSame(first, log.getSnapshot());
+
+        // published snapshots are immutable
+        log.add(new BLEDevice("x", "00:00:00:00:00:01", null));
+        assertTrue(log.publishSnapshot());
+        DeviceSnapshot second = log.getSnapshot();
+        assertEquals(13, first.size());
+        assertEquals(14, second.size());
+        assertTrue(second.getVersion() > first.getVersion());
+        try {
+            second.getDevices().clear();
+            fail("snapshot modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        log.clear();
+        assertTrue(log.publishSnapshot());
+        assertEquals(0, log.getSnapshot().size());
+    }
+
+    @Test
+    public void snapshot_countsDeviceEvents() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        log.addAll(batch(20));
+        log.publishSnapshot();
+        DeviceSnapshot first = log.getSnapshot();
+        assertEquals(13, first.getAddedCount());
+        assertEquals(7, first.getUpdatedCount());
+        assertEquals(0, first.getRemovedCount());
+
+        log.add(new BLEDevice("x", "00:00:00:00:00:01", null));
+        log.add(new BLEDevice("x", "00:00:00:00:00:01", null));
+        log.clear();
+        log.publishSnapshot();
+        // coalesced events between two snapshots
+        DeviceSnapshot second = log.getSnapshot();
+        assertEquals(1, second.getAddedCount() - first.getAddedCount());
+        assertEquals(1, second.getUpdatedCount() - first.getUpdatedCount());
+        assertEquals(14, second.getRemovedCount() - first.getRemovedCount());
+    }
+
+    @Test
+    public void add_keepsPayloadVersionForSamePayload() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        BLEDevice first = packet(-60, 1, 2, 3);
+        BLEDevice signal = packet(-70, 1, 2, 3);
+        BLEDevice changed = packet(-70, 1, 2, 4);
+        BLEDevice other = new BLEDevice(null, "00:00:00:00:00:02", null);
+
+        log.add(first);
+        log.add(other);
+        log.add(signal);
+        assertEquals(first.getPayloadVersion(), signal.getPayloadVersion());
+        assertNotEquals(first.getPayloadVersion(), other.getPayloadVersion());
+
+        log.add(changed);
+        assertNotEquals(signal.getPayloadVersion(), changed.getPayloadVersion());
+        assertNotEquals(other.getPayloadVersion(), changed.getPayloadVersion());
+    }
+
+    @Test
+    public void add_skipsInvalidAddresses() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        log.add(new BLEDevice("a", "NA", null));
+        log.add(new BLEDevice("b", null, null));
+        log.add(new BLEDevice("c", "00:00:00:00:00:01", null));
+        log.publishSnapshot();
+
+        assertEquals(1, log.getDeviceList().size());
+        assertEquals("c", log.getDeviceList().get(0).getName());
+        assertEquals(2, log.getInvalidAddressCount());
+    }
+
+    @Test
+    public void add_estimatesAdvertisingInterval() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        long start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            log.add(observation("00:00:00:00:00:01", start + i * 100000000L));
+        }
+        log.publishSnapshot();
+        BLEDevice device = log.getDeviceList().get(0);
+        assertEquals(100000000L, device.getAdvertisingInterval());
+
+        // a missed advertisement moves the estimate only partly
+        log.add(observation("00:00:00:00:00:01", start + 51 * 100000000L));
+        log.publishSnapshot();
+        long interval = log.getDeviceList().get(0).getAdvertisingInterval();
+        assertTrue(interval > 100000000L && interval < 150000000L);
+    }
+
+    @Test
+    public void expireDevices_afterMissedIntervals() throws InterruptedException {
+        BLEDeviceLog log = new BLEDeviceLog();
+        log.setDeviceMaxAge(10);
+        log.setAdaptiveExpiry(3, 200);
+        long now = System.nanoTime();
+        // fast device advertising every 10 ms, slow one every 500 ms
+        for (int i = 10; i >= 0; i--) {
+            log.add(observation("00:00:00:00:00:01", now - 50000000L - i * 10000000L));
+        }
+        for (int i = 5; i >= 0; i--) {
+            log.add(observation("00:00:00:00:00:02", now - i * 500000000L));
+        }
+
+        // fast device expires after the min age, the slow one is kept for three intervals
+        Thread.sleep(400);
+        log.expireDevices();
+        assertNull(find(log, "00:00:00:00:00:01"));
+        assertNotNull(find(log, "00:00:00:00:00:02"));
+
+        // max age only
+        log.setAdaptiveExpiry(0, 200);
+        log.add(observation("00:00:00:00:00:01", System.nanoTime()));
+        Thread.sleep(400);
+        log.expireDevices();
+        assertNotNull(find(log, "00:00:00:00:00:01"));
+    }
+
+    private static BLEDevice find(BLEDeviceLog log, String address) {
+        log.publishSnapshot();
+        for (BLEDevice device : log.getDeviceList()) {
+            if (device.getAddress().equals(address)) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private static BLEDevice observation(String address, long timestamp) {
+        return new BLEDevice("card", address, timestamp, 0, null);
+    }
+
+    private static BLEDevice packet(int rssi, int... payload) {
+        byte[] record = new byte[payload.length];
+        for (int i = 0; i < payload.length; i++) {
+            record[i] = (byte) payload[i];
+        }
+        return new BLEDevice("card", "00:00:00:00:00:01", System.nanoTime(), rssi, record);
+    }
+}
@@ -0,0 +1,89 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the device table and its primitive hash index.
+ */
+public class BLEDeviceTableTest {
+
+    @Test
+    public void macAddress_parseAndFormat() {
+        assertEquals(0x1804ED61663DL, MacAddress.parse("18:04:ED:61:66:3D"));
+        assertEquals(0x1804ED61663DL, MacAddress.parse(" 18:04:ed:61:66:3d "));
+        assertEquals("18:04:ED:61:66:3D", MacAddress.format(0x1804ED61663DL));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("18:04:ED:61:66"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("18:04:ED:61:66:3G"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse(null));
+    }
+
+    @Test
+    public void table_replacesInPlace() {
+        BLEDeviceTable table = new BLEDeviceTable(2);
+        BLEDevice a = new BLEDevice("a", "00:00:00:00:00:01", "");
+        BLEDevice b = new BLEDevice("b", "00:00:00:00:00:02", "");
+        BLEDevice c = new BLEDevice("c", "00:00:00:00:00:03", "");
+        BLEDevice b2 = new BLEDevice("b2", "00:00:00:00:00:02", "");
+
+        table.put(a);
+        table.put(b);
+        table.put(c);
+        table.put(b2);
+
+        assertEquals(3, table.size());
+        assertSame(b2, table.get(2));
+        List<BLEDevice> list = table.snapshot();
+        assertSame(a, list.get(0));
+        assertSame(b2, list.get(1));
+        assertSame(c, list.get(2));
+
+        assertSame(a, table.remove(1));
+        assertNull(table.remove(1));
+        list = table.snapshot();
+        assertEquals(2, list.size());
+        assertSame(b2, list.get(0));
+    }
+
+    @Test
+    public void table_matchesReference() {
+        Random random = new Random(42);
+        BLEDeviceTable table = new BLEDeviceTable(4);
+        LinkedHashMap<Long, BLEDevice> reference = new LinkedHashMap<>();
+
+        for (int i = 0; i < 100000; i++) {
+            long key = 0x1804ED610000L + random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                assertSame(reference.remove(key), table.remove(key));
+            } else {
+                BLEDevice device = new BLEDevice(null, MacAddress.format(key), "");
+                table.put(device);
+                // replacement keeps the insertion order, like the previous list
+                reference.put(key, device);
+            }
+            assertEquals(reference.size(), table.size());
+        }
+        assertEquals(new ArrayList<>(reference.values()), table.snapshot());
+    }
+
+    @Test
+    public void hashMap_removeKeepsProbeSequences() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 1024L, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, map.remove(i * 1024L));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? LongIntHashMap.MISSING : i, map.get(i * 1024L));
+        }
+        assertEquals(500, map.size());
+    }
+}
@@ -0,0 +1,120 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the binary log format and its conversion to CSV.
+ */
+public class BinaryLogTest {
+
+    /**
+     * Scan session of MiroCards with zero padded records like delivered by the scanner
+     */
+    private static List<BLEDevice> session(int packets) {
+        Random random = new Random(3);
+        List<BLEDevice> devices = new ArrayList<>();
+        long timestamp = 1234567890123456789L;
+        for (int i = 0; i < packets; i++) {
+            int card = random.nextInt(20);
+            byte[] record = new byte[62];
+            System.arraycopy(MiroCardDecoderTest.MIROCARD, 0, record, 0, MiroCardDecoderTest.MIROCARD.length);
+            // sensor values change now and then
+            if (random.nextInt(10) == 0) {
+                record[12] = (byte) random.nextInt();
+            }
+            timestamp += random.nextInt(50000000);
+            devices.add(new BLEDevice("MiroCard", MacAddress.format(0x1804ED610000L + card),
+                    timestamp, -40 - random.nextInt(60), record));
+        }
+        return devices;
+    }
+
+    private static byte[] csv(List<BLEDevice> devices) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        encoder.writeHeader(out);
+        for (BLEDevice device : devices) {
+            encoder.writeRow(device, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] binary(List<BLEDevice> devices) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryLogEncoder encoder = new BinaryLogEncoder();
+        encoder.writeHeader(out);
+        for (BLEDevice device : devices) {
+            encoder.writeRow(device, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] convert(byte[] binary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryLogConverter.toCsv(new ByteArrayInputStream(binary), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void convert_matchesCsvLog() throws IOException {
+        List<BLEDevice> devices = session(1000);
+        // special cases
+        devices.add(new BLEDevice(null, null, 0, 999, null));
+        devices.add(new BLEDevice("MiroCard", "18:04:ed:61:00:01", -1, 0, new byte[0]));
+        devices.add(new BLEDevice("renamed", "18:04:ED:61:00:01", Long.MIN_VALUE, 200, MiroCardDecoderTest.PERSONAL));
+        devices.add(new BLEDevice("Gr\u00fcezi \uD83D\uDE00 \uD83D", "invalid", Long.MAX_VALUE, -128, MiroCardDecoderTest.SENSOR_V2));
+        devices.add(new BLEDevice(null, "also invalid", 5, 127, MiroCardDecoderTest.SENSOR_V2));
+        devices.add(new BLEDevice("legacy", "AA:BB:CC:DD:EE:FF", "data string"));
+        devices.add(new BLEDevice("repeat", "18:04:ED:61:00:01", 6, -1, MiroCardDecoderTest.PERSONAL));
+        devices.addAll(session(100));
+
+        assertArrayEquals(csv(devices), convert(binary(devices)));
+    }
+
+    @Test
+    public void binary_isSmallerThanCsv() throws IOException {
+        List<BLEDevice> devices = session(10000);
+        int csvSize = csv(devices).length;
+        int binarySize = binary(devices).length;
+        assertTrue("binary " + binarySize + " bytes, CSV " + csvSize + " bytes", binarySize * 5 < csvSize);
+    }
+
+    @Test
+    public void reader_stopsAtDamagedRecord() throws IOException {
+        List<BLEDevice> devices = session(100);
+        byte[] binary = binary(devices);
+
+        BinaryLogReader reader = new BinaryLogReader(new ByteArrayInputStream(binary));
+        int packets = 0;
+        while (reader.next()) {
+            packets++;
+        }
+        assertEquals(devices.size(), packets);
+        assertTrue(reader.isComplete());
+        assertEquals(binary.length, reader.getValidLength());
+
+        // cut off in the middle of the last record
+        byte[] truncated = Arrays.copyOf(binary, binary.length - 2);
+        reader = new BinaryLogReader(new ByteArrayInputStream(truncated));
+        packets = 0;
+        while (reader.next()) {
+            packets++;
+        }
+        assertEquals(devices.size() - 1, packets);
+        assertFalse(reader.isComplete());
+        assertTrue(reader.getValidLength() < truncated.length);
+
+        byte[] expected = csv(devices.subList(0, devices.size() - 1));
+        assertArrayEquals(expected, convert(truncated));
+    }
+}
@@ -0,0 +1,162 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the CSV log row encoder.
+ */
+public class CsvRowEncoderTest {
+    private static final char CSV_DELIMITER = ';';
+
+    private static final byte[] RECORD = {
+            0x02, 0x01, 0x06,
+            0x10, (byte) 0xFF, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, 0x07,
+            0x2C, (byte) 0x91, 0x3A, 0x1F, 0x00, 0x64, (byte) 0x80, 0x34, 0x12, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    private static final int PACKETS = 10000;
+
+    /**
+     * Reference implementation of the previous row formatting in BLEDeviceLog
+     */
+    private static String legacyRow(BLEDevice device) {
+        String address = device.getAddress();
+        String data = device.getData();
+        String name = device.getName();
+
+        String dataRow = "";
+        dataRow += String.valueOf(device.getTimestamp());
+        if (address != null) {
+            dataRow += CSV_DELIMITER + address;
+        } else {
+            dataRow += CSV_DELIMITER + "NA";
+        }
+        dataRow += CSV_DELIMITER + String.valueOf(device.getRssi());
+        if (data != null) {
+            dataRow += CSV_DELIMITER + data;
+        } else {
+            dataRow += CSV_DELIMITER + "NA";
+        }
+        if (name != null) {
+            dataRow += CSV_DELIMITER + name;
+        } else {
+            dataRow += CSV_DELIMITER + "NA";
+        }
+        return dataRow + "\n";
+    }
+
+    /**
+     * Encode a string like the previous file writer did
+     */
+    private static byte[] legacyBytes(String row) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(row);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] encoded(CsvRowEncoder encoder, BLEDevice device) {
+        int length = encoder.encode(device);
+        return Arrays.copyOf(encoder.getBuffer(), length);
+    }
+
+    @Test
+    public void header_matchesLegacyFormat() throws IOException {
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        int length = encoder.encodeHeader();
+        assertArrayEquals(legacyBytes("time;address;RSSI;data;name\n"),
+                Arrays.copyOf(encoder.getBuffer(), length));
+    }
+
+    @Test
+    public void row_matchesLegacyFormat() throws IOException {
+        BLEDevice[] devices = {
+                new BLEDevice("MiroCard", "18:04:ED:61:66:3D", 123456789012345L, -67, RECORD),
+                new BLEDevice(null, null, 0, 999, null),
+                new BLEDevice("", "AA:BB:CC:DD:EE:FF", -1, 0, new byte[0]),
+                new BLEDevice("Gr\u00fcezi Z\u00fcrich \u20ac", "AA:BB:CC:DD:EE:FF", Long.MAX_VALUE, Integer.MIN_VALUE, RECORD),
+                new BLEDevice("emoji \uD83D\uDE00 end", "AA:BB:CC:DD:EE:FF", Long.MIN_VALUE, Integer.MAX_VALUE, RECORD),
+                new BLEDevice("lone \uD83D and \uDE00", "AA:BB:CC:DD:EE:FF", 9, -9, RECORD),
+                new BLEDevice("truncated", "AA:BB:CC:DD:EE:FF", 10, -100, new byte[]{0x02, 0x01, 0x06, (byte) 0x90, (byte) 0xFF, 0x01}),
+                new BLEDevice("legacy", "AA:BB:CC:DD:EE:FF", "data string"),
+        };
+
+        // small initial buffer to exercise growing
+        CsvRowEncoder encoder = new CsvRowEncoder(1);
+        for (BLEDevice device : devices) {
+            assertArrayEquals(legacyRow(device), legacyBytes(legacyRow(device)), encoded(encoder, device));
+        }
+
+        // longer names than the initial buffer
+        char[] chars = new char[1000];
+        Arrays.fill(chars, '\u00e4');
+        BLEDevice device = new BLEDevice(new String(chars), "AA:BB:CC:DD:EE:FF", 1, 1, RECORD);
+        assertArrayEquals(legacyBytes(legacyRow(device)), encoded(encoder, device));
+    }
+
+    @Test
+    public void allocationPerRow() throws IOException {
+        Assume.assumeTrue(isAllocationCounterSupported());
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        OutputStream sink = new OutputStream() {
+            long count = 0;
+
+            @Override
+            public void write(int b) {
+                count++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                count += len;
+            }
+        };
+        BLEDevice[] devices = {
+                new BLEDevice("MiroCard", "18:04:ED:61:66:3D", 123456789012345L, -67, RECORD),
+                new BLEDevice("Z\u00fcrich", "18:04:ED:61:66:3E", -5, 3, RECORD),
+                new BLEDevice(null, null, 0, 999, RECORD),
+        };
+
+        // warm up, grows the buffer to the longest row
+        for (int i = 0; i < PACKETS; i++) {
+            encoder.writeRow(devices[i % devices.length], sink);
+        }
+
+        long allocated = allocatedBytes();
+        for (int i = 0; i < PACKETS; i++) {
+            encoder.writeRow(devices[i % devices.length], sink);
+        }
+        allocated = allocatedBytes() - allocated;
+
+        // tolerate stray allocations of the runtime during the measurement, below a byte per row
+        assertTrue("encoding should not allocate, allocated " + allocated + " bytes for "
+                + PACKETS + " rows", allocated < PACKETS);
+    }
+
+    private static boolean isAllocationCounterSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
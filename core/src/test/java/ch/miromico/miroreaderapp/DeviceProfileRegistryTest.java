@@ -0,0 +1,79 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the device profile registry.
+ */
+public class DeviceProfileRegistryTest {
+
+    private static InputStream csv(String text) {
+        return new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void load_parsesProfiles() throws IOException {
+        DeviceProfileRegistry registry = DeviceProfileRegistry.load(csv(
+                "mac;name;tier;member_since;avatar\n" +
+                        "18:04:ED:61:66:3D;Andres' MiroCard;Platinum Member;13.08.2020;profile_ag\n" +
+                        "# comment\n" +
+                        "\n" +
+                        "18:04:ed:61:67:2b ;Kevin's MiroCard;Gold Member;13.08.2020;\n" +
+                        "18:04:ED:61:67;broken;;;\n" +
+                        "18:04:ED:61:67:0C;missing fields\n"));
+
+        assertEquals(2, registry.size());
+        DeviceProfile andres = registry.get(MacAddress.parse("18:04:ED:61:66:3D"));
+        assertEquals("Andres' MiroCard", andres.getName());
+        assertEquals("Platinum Member", andres.getTier());
+        assertEquals("13.08.2020", andres.getMemberSince());
+        assertEquals("profile_ag", andres.getAvatar());
+
+        DeviceProfile kevin = registry.get(MacAddress.parse("18:04:ED:61:67:2B"));
+        assertEquals("Gold Member", kevin.getTier());
+        assertNull(kevin.getAvatar());
+        assertNull(registry.get(MacAddress.parse("18:04:ED:61:67:0C")));
+    }
+
+    @Test
+    public void load_handlesThousandsOfCards() throws IOException {
+        StringBuilder text = new StringBuilder("mac;name;tier;member_since;avatar\n");
+        for (int i = 0; i < 5000; i++) {
+            text.append(MacAddress.format(0x1804ED000000L + i)).append(";card ").append(i)
+                    .append(";Member;01.01.2021;\n");
+        }
+        DeviceProfileRegistry registry = DeviceProfileRegistry.load(csv(text.toString()));
+
+        assertEquals(5000, registry.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("card " + i, registry.get(0x1804ED000000L + i).getName());
+        }
+        assertNull(registry.get(0x1804ED000000L + 5000));
+    }
+
+    @Test
+    public void deviceLog_assignsProfileAtIngest() throws IOException {
+        BLEDeviceLog log = new BLEDeviceLog();
+        log.setProfileRegistry(DeviceProfileRegistry.load(csv(
+                "18:04:ED:61:66:3D;Andres' MiroCard;Platinum Member;13.08.2020;profile_ag\n")));
+
+        BLEDevice card = new BLEDevice(null, "18:04:ED:61:66:3D", null);
+        BLEDevice other = new BLEDevice(null, "18:04:ED:61:66:3E", null);
+        log.add(card);
+        log.add(other);
+        assertEquals("Andres' MiroCard", card.getProfile().getName());
+        assertNull(other.getProfile());
+
+        // later observations take over the profile of the device entry
+        BLEDevice again = new BLEDevice(null, "18:04:ED:61:66:3D", null);
+        log.add(again);
+        assertSame(card.getProfile(), again.getProfile());
+    }
+}
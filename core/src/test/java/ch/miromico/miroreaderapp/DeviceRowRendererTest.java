@@ -0,0 +1,105 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the device row rendering.
+ */
+public class DeviceRowRendererTest {
+    private Locale locale;
+
+    @Before
+    public void setUp() {
+        locale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(locale);
+    }
+
+    @Test
+    public void renderRaw_formatsAllTexts() {
+        BLEDevice device = new BLEDevice(null, "18:04:ED:61:66:71", "0201");
+        device.rssi = -71;
+        device.timestamp = 123456789L;
+        device.profile = new DeviceProfile(device.getAddressKey(), "Kevin's MiroCard", "Gold Member", "13.08.2020", "profile_kl");
+
+        DeviceRow row = DeviceRowRenderer.renderRaw(device);
+        assertSame(device, row.device);
+        assertEquals("{no name}", row.name);
+        assertEquals("18:04:ED:61:66:71", row.address);
+        assertEquals("0201", row.data);
+        assertEquals("-71", row.rssi);
+        assertEquals("123456789", row.timestamp);
+        assertEquals("profile_kl", row.avatar);
+    }
+
+    @Test
+    public void renderDecoded_formatsSensorValues() {
+        BLEDevice device = new BLEDevice("card", "18:04:ED:00:00:01", null);
+        device.sample = new MiroCardSample(MiroCardSample.KIND_MIROCARD, 0xABABABAB,
+                MiroCardSample.TEMP_RH | MiroCardSample.LIGHT, 21.5f, 40.25f, 312.5f, 0, 0, 0);
+
+        DeviceRow row = DeviceRowRenderer.renderDecoded(device);
+        assertEquals("MiroCard", row.name);
+        assertEquals(" +21.50 \u00b0C", row.temperature);
+        assertEquals(" 40.3 %RH", row.humidity);
+        assertEquals("312.5 lx", row.luminosity);
+        // values not contained in the packet are empty, not left over from another row
+        assertEquals("", row.accX);
+        assertEquals("abababab", row.time);
+        assertNull(row.avatar);
+    }
+
+    @Test
+    public void renderDecoded_marksInvalidPackets() {
+        BLEDevice device = new BLEDevice(null, null, null);
+        device.sample = MiroCardSample.INVALID;
+
+        DeviceRow row = DeviceRowRenderer.renderDecoded(device);
+        assertEquals("{no addr}", row.address);
+        assertEquals("{no name}", row.name);
+        assertEquals("err", row.temperature);
+        assertEquals("err", row.time);
+    }
+
+    @Test
+    public void renderSignal_takesOverPayloadTexts() {
+        BLEDevice device = new BLEDevice("card", "18:04:ED:00:00:01", null);
+        device.sample = new MiroCardSample(MiroCardSample.KIND_MIROCARD, 0x12345678,
+                MiroCardSample.TEMP_RH, 21.5f, 40.25f, 0, 0, 0, 0);
+        DeviceRow previous = DeviceRowRenderer.renderDecoded(device);
+
+        BLEDevice update = new BLEDevice(device);
+        update.rssi = -42;
+        update.timestamp = 1000L;
+        DeviceRow row = DeviceRowRenderer.renderSignal(previous, update);
+        assertSame(update, row.device);
+        assertSame(previous.temperature, row.temperature);
+        assertSame(previous.name, row.name);
+        assertEquals("-42", row.rssi);
+        assertEquals("1000", row.timestamp);
+    }
+
+    @Test
+    public void renderDecoded_showsPersonalProfile() {
+        BLEDevice device = new BLEDevice(null, "18:04:ED:61:67:2B", null);
+        device.sample = new MiroCardSample(MiroCardSample.KIND_PERSONAL, 0, 0, 0, 0, 0, 0, 0, 0);
+        assertEquals("{no name}", DeviceRowRenderer.renderDecoded(device).name);
+
+        device.profile = new DeviceProfile(device.getAddressKey(), "Kevin's MiroCard", "Gold Member", "13.08.2020", "profile_kl");
+        DeviceRow row = DeviceRowRenderer.renderDecoded(device);
+        assertEquals("Kevin's MiroCard", row.name);
+        assertEquals("13.08.2020", row.accZ);
+        assertEquals("Gold Member", row.time);
+        assertEquals("profile_kl", row.avatar);
+    }
+}
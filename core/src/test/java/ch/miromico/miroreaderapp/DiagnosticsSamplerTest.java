@@ -0,0 +1,107 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the diagnostics counters and sampler.
+ */
+public class DiagnosticsSamplerTest {
+
+    private static BLEDevice device(String address) {
+        return new BLEDevice("d", address, System.nanoTime(), 0, null);
+    }
+
+    @Test
+    public void stripedCounter_sumsAllThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.add(5);
+        assertEquals(40005, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void sample_reportsIntervalDeltas() throws InterruptedException {
+        StripedCounter received = new StripedCounter();
+        LatencyStats stats = new LatencyStats();
+        BLEDeviceLog log = new BLEDeviceLog();
+        log.setLatencyStats(stats);
+        DiagnosticsSampler sampler = new DiagnosticsSampler(received, log, stats);
+
+        log.add(device("AA:00:00:00:00:01"));
+        log.add(device("AA:00:00:00:00:02"));
+        received.add(2);
+        log.publishSnapshot();
+        sampler.sample();
+
+        for (int i = 0; i < 30; i++) {
+            log.add(device("AA:00:00:00:00:01"));
+        }
+        for (int i = 0; i < 10; i++) {
+            log.add(device("AA:00:00:00:00:02"));
+        }
+        received.add(40);
+        log.publishSnapshot();
+        Thread.sleep(20);
+        DiagnosticsSample sample = sampler.sample();
+
+        assertEquals(2, sample.deviceCount);
+        assertTrue(sample.interval > 0);
+        assertEquals(40 * 1e9 / sample.interval, sample.packetRate, 1e-6);
+        assertArrayEquals(new String[]{"AA:00:00:00:00:01", "AA:00:00:00:00:02"}, sample.topDevices);
+        assertEquals(3.0, sample.topDeviceRates[0] / sample.topDeviceRates[1], 1e-9);
+        assertTrue(sample.ingestLatencyP50 > 0);
+        assertTrue(sample.ingestLatencyP99 >= sample.ingestLatencyP50);
+        assertEquals(0, sample.logQueueDepth);
+
+        // nothing received since the last sample
+        sample = sampler.sample();
+        assertEquals(0, sample.packetRate, 0);
+        assertEquals(0, sample.topDevices.length);
+        assertEquals(0, sample.ingestLatencyP50);
+    }
+
+    @Test
+    public void sample_ignoresDeviceFilter() throws InterruptedException {
+        StripedCounter received = new StripedCounter();
+        LatencyStats stats = new LatencyStats();
+        BLEDeviceLog log = new BLEDeviceLog();
+        DiagnosticsSampler sampler = new DiagnosticsSampler(received, log, stats);
+
+        log.add(device("AA:00:00:00:00:01"));
+        log.add(device("BB:00:00:00:00:02"));
+        log.setDeviceFilter("BB");
+        log.publishSnapshot();
+        sampler.sample();
+
+        // devices hidden by the filter of the displayed list are sampled as well
+        log.setDeviceFilter("AA");
+        for (int i = 0; i < 10; i++) {
+            log.add(device("AA:00:00:00:00:01"));
+        }
+        log.publishSnapshot();
+        Thread.sleep(20);
+        DiagnosticsSample sample = sampler.sample();
+
+        assertEquals(1, log.getSnapshot().size());
+        assertArrayEquals(new String[]{"AA:00:00:00:00:01"}, sample.topDevices);
+        assertEquals(10 * 1e9 / sample.interval, sample.topDeviceRates[0], 1e-6);
+    }
+}
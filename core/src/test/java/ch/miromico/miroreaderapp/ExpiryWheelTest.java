@@ -0,0 +1,95 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the device expiry timer wheel.
+ */
+public class ExpiryWheelTest {
+    private static final long TICK = 100;
+
+    @Test
+    public void advance_expiresOnlyDueSlots() {
+        final boolean[] expired = new boolean[3];
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 8, 2);
+        ExpiryWheel.Callback callback = new ExpiryWheel.Callback() {
+            @Override
+            public void onExpired(int slot) {
+                expired[slot] = true;
+            }
+        };
+
+        wheel.advance(1000, callback);
+        wheel.schedule(0, 1150);
+        wheel.schedule(1, 1250);
+        // beyond one wheel revolution
+        wheel.schedule(2, 1000 + 20 * TICK);
+        assertEquals(3, wheel.size());
+
+        assertEquals(0, wheel.advance(1149, callback));
+        assertEquals(1, wheel.advance(1150, callback));
+        assertTrue(expired[0]);
+        assertFalse(wheel.isScheduled(0));
+
+        // rescheduling postpones the expiry
+        wheel.schedule(1, 1900);
+        assertEquals(0, wheel.advance(1800, callback));
+        assertEquals(1, wheel.advance(1950, callback));
+        assertTrue(expired[1]);
+
+        assertEquals(0, wheel.advance(2999, callback));
+        assertFalse(expired[2]);
+        assertEquals(1, wheel.advance(3000, callback));
+        assertTrue(expired[2]);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void advance_matchesReference() {
+        final int slots = 200;
+        final long[] expiredAt = new long[slots];
+        final long[] now = new long[1];
+        long[] deadlines = new long[slots];
+        Arrays.fill(deadlines, -1);
+        Arrays.fill(expiredAt, -1);
+
+        ExpiryWheel wheel = new ExpiryWheel(TICK, 16, 4);
+        ExpiryWheel.Callback callback = new ExpiryWheel.Callback() {
+            @Override
+            public void onExpired(int slot) {
+                expiredAt[slot] = now[0];
+            }
+        };
+
+        Random random = new Random(7);
+        now[0] = 5000;
+        for (int step = 0; step < 20000; step++) {
+            int slot = random.nextInt(slots);
+            if (random.nextInt(10) == 0) {
+                wheel.cancel(slot);
+                deadlines[slot] = -1;
+            } else {
+                deadlines[slot] = now[0] + random.nextInt(5000);
+                expiredAt[slot] = -1;
+                wheel.schedule(slot, deadlines[slot]);
+            }
+
+            now[0] += random.nextInt(3 * (int) TICK);
+            wheel.advance(now[0], callback);
+
+            for (int i = 0; i < slots; i++) {
+                boolean due = deadlines[i] >= 0 && deadlines[i] <= now[0];
+                assertEquals("slot " + i, due, !wheel.isScheduled(i) && deadlines[i] >= 0);
+                if (due) {
+                    assertTrue(expiredAt[i] >= deadlines[i]);
+                    deadlines[i] = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the latency histograms.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverAllValues() {
+        // consecutive buckets without gaps
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            assertEquals(LatencyHistogram.upperBound(bucket - 1) + 1, LatencyHistogram.lowerBound(bucket));
+            assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.lowerBound(bucket)));
+            assertEquals(bucket, LatencyHistogram.bucketOf(LatencyHistogram.upperBound(bucket)));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_withinBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            // uniform between 0 and 10 ms
+            histogram.record(random.nextInt(10000000));
+        }
+        histogram.record(-5);
+
+        assertEquals(100001, histogram.getCount());
+        assertEquals(5000000, histogram.getMean(), 50000);
+        assertEquals(5000000, histogram.getValueAtPercentile(50), 5000000 / 16);
+        assertEquals(9900000, histogram.getValueAtPercentile(99), 9900000 / 16);
+        assertTrue(histogram.getValueAtPercentile(100) <= histogram.getMax());
+        assertTrue(histogram.getMax() < 10000000);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void deviceLog_recordsStages() {
+        LatencyStats stats = new LatencyStats();
+        BLEDeviceLog deviceLog = new BLEDeviceLog();
+        deviceLog.setLatencyStats(stats);
+        for (int i = 0; i < 10; i++) {
+            deviceLog.add(new BLEDevice(null, MacAddress.format(i % 4), System.nanoTime() - 1000000,
+                    -50, MiroCardDecoderTest.MIROCARD));
+        }
+        assertTrue(deviceLog.publishSnapshot());
+
+        assertEquals(10, stats.getHistogram(LatencyStats.STAGE_TABLE_UPDATE).getCount());
+        assertEquals(10, stats.getHistogram(LatencyStats.STAGE_SNAPSHOT_PUBLISH).getCount());
+        assertTrue(stats.getHistogram(LatencyStats.STAGE_SNAPSHOT_PUBLISH).getValueAtPercentile(50) >= 1000000);
+        assertEquals(0, stats.getHistogram(LatencyStats.STAGE_BIND).getCount());
+
+        StringWriter report = new StringWriter();
+        stats.writeReport(new PrintWriter(report));
+        assertTrue(report.toString().contains("snapshot publish;10;"));
+    }
+}
@@ -0,0 +1,176 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the log file rotation and the archiving of closed segments.
+ */
+public class LogRotationTest {
+    private static final String HEADER = "time;address;RSSI;data;name";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("rotation", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    private static BLEDevice device(int i) {
+        return new BLEDevice("MiroCard", MacAddress.format(0x1804ED610000L + i % 7),
+                1000000L * i, -50 - i % 40, MiroCardDecoderTest.MIROCARD);
+    }
+
+    private static List<String> readLines(File file, boolean compressed) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (compressed) {
+            in = new GZIPInputStream(in);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void close(AsyncLogWriter writer) throws InterruptedException {
+        writer.close();
+        assertTrue(writer.getArchiver().awaitTermination(10000));
+    }
+
+    @Test
+    public void rotate_bySize() throws Exception {
+        File logFile = new File(directory, "session_ble.csv");
+        AsyncLogWriter writer = new AsyncLogWriter(logFile, new CsvRowEncoder(), false, 1024, 10);
+        writer.setRotation(4096, 0, true);
+        writer.start();
+
+        int rows = 1000;
+        for (int i = 0; i < rows; i++) {
+            while (!writer.offer(device(i))) {
+                Thread.sleep(1);
+            }
+        }
+        close(writer);
+        assertFalse(logFile.exists());
+
+        // manifest lists all segments in order, rows are split without loss
+        List<String> manifest = readLines(AsyncLogWriter.manifestFile(logFile), false);
+        assertEquals("file;opened;closed;first_time;last_time;rows;bytes", manifest.get(0));
+        assertTrue(manifest.size() > 10);
+
+        int row = 0;
+        for (int segment = 0; segment < manifest.size() - 1; segment++) {
+            String[] columns = manifest.get(segment + 1).split(";");
+            File file = new File(directory, columns[0]);
+            assertEquals(AsyncLogWriter.segmentFile(logFile, segment).getName() + ".gz", file.getName());
+            assertFalse(AsyncLogWriter.segmentFile(logFile, segment).exists());
+            assertEquals(file.length(), Long.parseLong(columns[6]));
+
+            List<String> lines = readLines(file, true);
+            assertEquals(HEADER, lines.get(0));
+            assertEquals(lines.size() - 1, Integer.parseInt(columns[5]));
+            assertEquals(device(row).getTimestamp(), Long.parseLong(columns[3]));
+            for (int i = 1; i < lines.size(); i++) {
+                assertTrue(lines.get(i).startsWith(device(row).getTimestamp() + ";"));
+                row++;
+            }
+            assertEquals(device(row - 1).getTimestamp(), Long.parseLong(columns[4]));
+        }
+        assertEquals(rows, row);
+    }
+
+    @Test
+    public void rotate_byTime() throws Exception {
+        File logFile = new File(directory, "session_ble.bin");
+        AsyncLogWriter writer = new AsyncLogWriter(logFile, new BinaryLogEncoder(), false, 1024, 10);
+        writer.setRotation(0, 100, false);
+        writer.start();
+
+        assertTrue(writer.offer(device(0)));
+        Thread.sleep(300);
+        assertTrue(writer.offer(device(1)));
+        close(writer);
+
+        List<String> manifest = readLines(AsyncLogWriter.manifestFile(logFile), false);
+        assertEquals(3, manifest.size());
+        assertTrue(manifest.get(1).startsWith("session_ble_000.bin;"));
+        assertTrue(manifest.get(2).startsWith("session_ble_001.bin;"));
+        assertTrue(AsyncLogWriter.segmentFile(logFile, 0).exists());
+        assertTrue(AsyncLogWriter.segmentFile(logFile, 1).exists());
+        assertFalse(AsyncLogWriter.segmentFile(logFile, 2).exists());
+    }
+
+    @Test
+    public void rotate_emptySegmentHasEmptyTimeRange() throws Exception {
+        File logFile = new File(directory, "session_ble.csv");
+        AsyncLogWriter writer = new AsyncLogWriter(logFile, new CsvRowEncoder(), false, 1024, 10);
+        writer.setRotation(0, 100, false);
+        writer.start();
+
+        assertTrue(writer.offer(device(5)));
+        Thread.sleep(300);
+        close(writer);
+
+        // the last segment was opened by the rotation and closed without rows
+        List<String> manifest = readLines(AsyncLogWriter.manifestFile(logFile), false);
+        assertEquals(3, manifest.size());
+        String[] first = manifest.get(1).split(";");
+        assertEquals("5000000", first[3]);
+        assertEquals("5000000", first[4]);
+        assertEquals("1", first[5]);
+        String[] empty = manifest.get(2).split(";");
+        assertEquals("0", empty[3]);
+        assertEquals("0", empty[4]);
+        assertEquals("0", empty[5]);
+    }
+
+    @Test
+    public void recover_archivesUnfinishedLogs() throws Exception {
+        // log file of a crashed session, ending in pre-allocated space
+        File partFile = new File(directory, "crashed_ble.csv" + MappedFileOutputStream.PART_SUFFIX);
+        OutputStream out = new FileOutputStream(partFile);
+        out.write((HEADER + "\n1;AA:BB:CC:DD:EE:FF;-60;00;NA\n").getBytes("UTF-8"));
+        out.write(new byte[4096]);
+        out.close();
+
+        File logFile = new File(directory, "session_ble.csv");
+        AsyncLogWriter writer = new AsyncLogWriter(logFile, new CsvRowEncoder(), false, 1024, 10);
+        writer.setRotation(1024 * 1024, 0, true);
+        writer.start();
+        writer.getArchiver().recover(LogRecovery.findUnfinished(directory));
+        close(writer);
+
+        File recovered = new File(directory, "crashed_ble.csv" + LogSegmentArchiver.COMPRESSED_EXTENSION);
+        assertFalse(partFile.exists());
+        assertEquals(2, readLines(recovered, true).size());
+
+        // listed before the segments of the running session
+        List<String> manifest = readLines(AsyncLogWriter.manifestFile(logFile), false);
+        assertEquals(3, manifest.size());
+        assertTrue(manifest.get(1).startsWith(recovered.getName() + ";0;"));
+        assertTrue(manifest.get(2).startsWith("session_ble_000.csv.gz;"));
+    }
+}
@@ -0,0 +1,130 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the memory mapped log backend and the recovery of unfinished logs.
+ */
+public class MappedLogTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("mapped", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+        directory.deleteOnExit();
+    }
+
+    private static List<BLEDevice> devices(int count) {
+        Random random = new Random(5);
+        List<BLEDevice> devices = new ArrayList<>();
+        long timestamp = 1000000000L;
+        for (int i = 0; i < count; i++) {
+            String address = MacAddress.format(0x1804ED610000L + random.nextInt(20));
+            byte[] record = MiroCardDecoderTest.MIROCARD.clone();
+            record[12] = (byte) random.nextInt();
+            timestamp += random.nextInt(10000000);
+            devices.add(new BLEDevice("MiroCard", address, timestamp, -40 - random.nextInt(60), record));
+        }
+        return devices;
+    }
+
+    private static void write(LogEncoder encoder, List<BLEDevice> devices, OutputStream out) throws IOException {
+        encoder.writeHeader(out);
+        for (BLEDevice device : devices) {
+            encoder.writeRow(device, out);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void mapped_matchesStream() throws IOException {
+        List<BLEDevice> devices = devices(1000);
+        File streamFile = new File(directory, "stream.csv");
+        File mappedFile = new File(directory, "mapped.csv");
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(streamFile));
+        write(new CsvRowEncoder(), devices, out);
+        out.close();
+
+        // rows span several small segments
+        MappedFileOutputStream mapped = new MappedFileOutputStream(mappedFile, SEGMENT_SIZE);
+        write(new CsvRowEncoder(), devices, mapped);
+        assertTrue(new File(directory, "mapped.csv" + MappedFileOutputStream.PART_SUFFIX).exists());
+        assertTrue(mapped.getLength() > 10 * SEGMENT_SIZE);
+        mapped.close();
+
+        assertFalse(new File(directory, "mapped.csv" + MappedFileOutputStream.PART_SUFFIX).exists());
+        assertArrayEquals(read(streamFile), read(mappedFile));
+    }
+
+    @Test
+    public void recover_textLog() throws IOException {
+        List<BLEDevice> devices = devices(500);
+        File expectedFile = new File(directory, "expected.csv");
+        File crashedFile = new File(directory, "crashed.csv");
+
+        OutputStream out = new FileOutputStream(expectedFile);
+        write(new CsvRowEncoder(), devices, out);
+        out.close();
+
+        // crash in the middle of a row, file is left unfinished
+        MappedFileOutputStream mapped = new MappedFileOutputStream(crashedFile, SEGMENT_SIZE);
+        CsvRowEncoder encoder = new CsvRowEncoder();
+        write(encoder, devices, mapped);
+        encoder.encode(devices.get(0));
+        mapped.write(encoder.getBuffer(), 0, encoder.getLength() / 2);
+        mapped.flush();
+
+        assertEquals(1, LogRecovery.recoverDirectory(directory));
+        assertArrayEquals(read(expectedFile), read(crashedFile));
+    }
+
+    @Test
+    public void recover_binaryLog() throws IOException {
+        List<BLEDevice> devices = devices(500);
+        File expectedFile = new File(directory, "expected.bin");
+        File crashedFile = new File(directory, "crashed.bin");
+
+        OutputStream out = new FileOutputStream(expectedFile);
+        write(new BinaryLogEncoder(), devices, out);
+        out.close();
+
+        MappedFileOutputStream mapped = new MappedFileOutputStream(crashedFile, SEGMENT_SIZE);
+        write(new BinaryLogEncoder(), devices, mapped);
+        // partial record: length prefix and type only
+        mapped.write(20);
+        mapped.write(BinaryLogEncoder.TYPE_PACKET);
+        mapped.flush();
+
+        File partFile = new File(directory, "crashed.bin" + MappedFileOutputStream.PART_SUFFIX);
+        assertEquals(expectedFile.length(), LogRecovery.recover(partFile));
+        assertArrayEquals(read(expectedFile), read(crashedFile));
+    }
+}
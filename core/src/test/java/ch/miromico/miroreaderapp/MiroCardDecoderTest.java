@@ -0,0 +1,97 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the MiroCard data decoding on recorded payloads.
+ */
+public class MiroCardDecoderTest {
+    private static final float DELTA = 0.001f;
+
+    /**
+     * MiroCard with temperature/humidity, light and acceleration data
+     */
+    static final byte[] MIROCARD = {
+            0x10, (byte) 0xFF, 0x00,
+            (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, (byte) 0xAB, 0x07,
+            (byte) 0xC4, 0x39, 0x63, (byte) 0xD2, 0x04, (byte) 0xC8, (byte) 0xB0, 0x44, 0x06,
+    };
+
+    /**
+     * Personal MiroCard prototype
+     */
+    static final byte[] PERSONAL = {
+            0x10, (byte) 0xFF, 0x00,
+            (byte) 0xFA, (byte) 0xFB, (byte) 0xFC, (byte) 0xFD, 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    /**
+     * Transient BLE sensor V2 with temperature/humidity data (old data format)
+     */
+    static final byte[] SENSOR_V2 = {
+            0x10, (byte) 0xFF, 0x00,
+            0x78, 0x56, 0x34, 0x12, (byte) 0xC4,
+            0x39, 0x63, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    @Test
+    public void decode_mirocard() {
+        MiroCardSample sample = MiroCardDecoder.decode(MIROCARD);
+
+        assertEquals(MiroCardSample.KIND_MIROCARD, sample.getKind());
+        assertEquals(MiroCardDecoder.TIMESTAMP_MIROCARD, sample.getTimestamp());
+        assertTrue(sample.has(MiroCardSample.TEMP_RH | MiroCardSample.LIGHT | MiroCardSample.ACC));
+        assertEquals(23.5f, sample.getTemperature(), DELTA);
+        assertEquals(45.2f, sample.getHumidity(), DELTA);
+        assertEquals(123.4f, sample.getLight(), DELTA);
+        assertEquals(0.0f, sample.getAccX(), DELTA);
+        assertEquals(1.0f, sample.getAccY(), DELTA);
+        assertEquals(-1.0f, sample.getAccZ(), DELTA);
+    }
+
+    @Test
+    public void decode_mirocardPartialMessage() {
+        byte[] record = MIROCARD.clone();
+        record[7] = MiroCardSample.LIGHT;
+        MiroCardSample sample = MiroCardDecoder.decode(record);
+
+        assertEquals(MiroCardSample.KIND_MIROCARD, sample.getKind());
+        assertFalse(sample.has(MiroCardSample.TEMP_RH));
+        assertTrue(sample.has(MiroCardSample.LIGHT));
+        assertFalse(sample.has(MiroCardSample.ACC));
+        assertEquals(123.4f, sample.getLight(), DELTA);
+        assertEquals(0.0f, sample.getTemperature(), DELTA);
+    }
+
+    @Test
+    public void decode_personal() {
+        MiroCardSample sample = MiroCardDecoder.decode(PERSONAL);
+
+        assertEquals(MiroCardSample.KIND_PERSONAL, sample.getKind());
+        assertEquals(MiroCardDecoder.TIMESTAMP_PERSONAL, sample.getTimestamp());
+        assertEquals(0, sample.getMessageType());
+        assertTrue(sample.isValid());
+    }
+
+    @Test
+    public void decode_sensorV2() {
+        MiroCardSample sample = MiroCardDecoder.decode(SENSOR_V2);
+
+        assertEquals(MiroCardSample.KIND_SENSOR_V2, sample.getKind());
+        assertEquals(0x12345678, sample.getTimestamp());
+        assertTrue(sample.has(MiroCardSample.TEMP_RH));
+        assertEquals(23.5f, sample.getTemperature(), DELTA);
+        assertEquals(45.2f, sample.getHumidity(), DELTA);
+    }
+
+    @Test
+    public void decode_shortRecords() {
+        assertSame(MiroCardSample.NONE, MiroCardDecoder.decode(null));
+        assertSame(MiroCardSample.NONE, MiroCardDecoder.decode(new byte[8]));
+        assertSame(MiroCardSample.INVALID, MiroCardDecoder.decode(new byte[12]));
+        assertFalse(MiroCardDecoder.decode(new byte[12]).isValid());
+    }
+}
@@ -0,0 +1,69 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the bounded multi producer queue feeding the log writer.
+ */
+public class MpscRingBufferTest {
+
+    @Test
+    public void offer_rejectsWhenFull() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void poll_keepsPerProducerOrder() throws InterruptedException {
+        final int producers = 4;
+        final int count = 100000;
+        final MpscRingBuffer<long[]> queue = new MpscRingBuffer<>(256);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        long[] element = {producer, i};
+                        while (!queue.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        int[] expected = new int[producers];
+        int received = 0;
+        while (received < producers * count) {
+            long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            assertEquals(expected[producer], element[1]);
+            expected[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the per device signal strength filter.
+ */
+public class RssiFilterTest {
+
+    private static BLEDevice observation(int rssi, long timestamp) {
+        return new BLEDevice("card", "18:04:ED:00:00:01", timestamp, rssi, null);
+    }
+
+    /**
+     * Filter a noisy signal of constant mean, advertised at 10 Hz
+     */
+    private static BLEDevice filterNoise(RssiFilter filter, int mean, int count) {
+        Random random = new Random(3);
+        BLEDevice last = null;
+        for (int i = 0; i < count; i++) {
+            BLEDevice device = observation(mean + random.nextInt(21) - 10, i * 100000000L);
+            filter.update(last, device);
+            last = device;
+        }
+        return last;
+    }
+
+    @Test
+    public void update_smoothesNoise() {
+        String[] filters = {RssiFilter.FILTER_EWMA, RssiFilter.FILTER_KALMAN};
+        for (String name : filters) {
+            RssiFilter filter = new RssiFilter();
+            filter.setFilter(name);
+            BLEDevice device = filterNoise(filter, -70, 200);
+            assertEquals(name, -70, device.getSmoothedRssi(), 4);
+            assertTrue(name, device.getRssiVariance() > 0);
+            assertEquals(name, RssiFilter.PROXIMITY_FAR, device.getProximity());
+        }
+
+        // the Kalman filter converges to a small estimate variance
+        RssiFilter filter = new RssiFilter();
+        filter.setFilter(RssiFilter.FILTER_KALMAN);
+        assertTrue(filterNoise(filter, -70, 200).getRssiVariance() < 4);
+    }
+
+    @Test
+    public void update_keepsStateForInvalidRssi() {
+        RssiFilter filter = new RssiFilter();
+        BLEDevice first = observation(-50, 0);
+        filter.update(null, first);
+        assertEquals(-50, first.getSmoothedRssi(), 0);
+
+        BLEDevice invalid = observation(999, 100000000L);
+        filter.update(first, invalid);
+        assertEquals(-50, invalid.getSmoothedRssi(), 0);
+        assertEquals(first.getProximity(), invalid.getProximity());
+
+        // unfiltered devices report the raw value
+        BLEDevice unfiltered = observation(-80, 0);
+        assertEquals(RssiFilter.PROXIMITY_UNKNOWN, unfiltered.getProximity());
+        assertEquals(-80, unfiltered.getSmoothedRssi(), 0);
+    }
+
+    @Test
+    public void proximity_followsPathLossModel() {
+        RssiFilter filter = new RssiFilter();
+        filter.setFilter(RssiFilter.FILTER_NONE);
+        filter.setPathLoss(-60, 2);
+        filter.setProximityBands(0.5f, 3);
+
+        BLEDevice immediate = observation(-50, 0);
+        BLEDevice near = observation(-65, 0);
+        BLEDevice far = observation(-80, 0);
+        filter.update(null, immediate);
+        filter.update(null, near);
+        filter.update(null, far);
+        assertEquals(RssiFilter.PROXIMITY_IMMEDIATE, immediate.getProximity());
+        assertEquals(RssiFilter.PROXIMITY_NEAR, near.getProximity());
+        assertEquals(RssiFilter.PROXIMITY_FAR, far.getProximity());
+        assertEquals(10, filter.getDistance(far), 1e-6);
+        assertEquals("-65 near", DeviceRowRenderer.renderRssi(near));
+    }
+}
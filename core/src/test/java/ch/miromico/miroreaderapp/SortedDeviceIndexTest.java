@@ -0,0 +1,126 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the incrementally sorted device index.
+ */
+public class SortedDeviceIndexTest {
+
+    private static BLEDevice device(Random random, int id) {
+        BLEDevice device = new BLEDevice(random.nextInt(4) == 0 ? null : "n" + random.nextInt(50),
+                MacAddress.format(0x1804ED610000L + id), null);
+        device.rssi = -30 - random.nextInt(70);
+        device.timestamp = random.nextInt(1000);
+        if (random.nextBoolean()) {
+            device.sample = new MiroCardSample(MiroCardSample.KIND_MIROCARD, 0, MiroCardSample.TEMP_RH,
+                    random.nextInt(400) / 10f, 0, 0, 0, 0, 0);
+        }
+        return device;
+    }
+
+    private static void assertSorted(String order, List<BLEDevice> devices, SortedDeviceIndex index) {
+        final Comparator<BLEDevice> comparator = SortedDeviceIndex.comparatorOf(order);
+        List<BLEDevice> expected = new ArrayList<>(devices);
+        Collections.sort(expected, new Comparator<BLEDevice>() {
+            @Override
+            public int compare(BLEDevice a, BLEDevice b) {
+                int c = comparator.compare(a, b);
+                return c != 0 ? c : Long.compare(a.getAddressKey(), b.getAddressKey());
+            }
+        });
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(order + " position " + i, expected.get(i), index.get(i));
+        }
+    }
+
+    @Test
+    public void update_matchesFullSort() {
+        String[] orders = {SortedDeviceIndex.ORDER_RSSI, SortedDeviceIndex.ORDER_LAST_SEEN,
+                SortedDeviceIndex.ORDER_NAME, SortedDeviceIndex.ORDER_TEMPERATURE};
+        for (String order : orders) {
+            Random random = new Random(order.hashCode());
+            BLEDeviceTable table = new BLEDeviceTable();
+            SortedDeviceIndex index = new SortedDeviceIndex();
+            index.setOrder(order, table.snapshot());
+
+            for (int step = 0; step < 5000; step++) {
+                int id = random.nextInt(300);
+                BLEDevice previous = table.get(0x1804ED610000L + id);
+                if (previous != null && random.nextInt(5) == 0) {
+                    table.remove(previous.getAddressKey());
+                    index.remove(previous);
+                } else {
+                    BLEDevice device = device(random, id);
+                    table.put(device);
+                    index.update(previous, device);
+                }
+                if (step % 500 == 0) {
+                    assertSorted(order, table.snapshot(), index);
+                }
+            }
+            assertSorted(order, table.snapshot(), index);
+
+            // re-sorting all devices gives the same order
+            SortedDeviceIndex resorted = new SortedDeviceIndex();
+            resorted.setOrder(order, table.snapshot());
+            assertSorted(order, table.snapshot(), resorted);
+        }
+    }
+
+    @Test
+    public void insertionOrder_disablesIndex() {
+        SortedDeviceIndex index = new SortedDeviceIndex();
+        assertFalse(index.isEnabled());
+        index.update(null, new BLEDevice("a", "00:00:00:00:00:01", null));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void deviceLog_publishesSortedAndFiltered() {
+        BLEDeviceLog log = new BLEDeviceLog();
+        BLEDevice a = new BLEDevice("alpha", "18:04:ED:00:00:01", null);
+        BLEDevice b = new BLEDevice("beta", "18:04:ED:00:00:02", null);
+        BLEDevice c = new BLEDevice(null, "AA:04:ED:00:00:03", null);
+        a.rssi = -80;
+        b.rssi = -50;
+        c.rssi = -60;
+        log.add(a);
+        log.add(b);
+        log.add(c);
+
+        log.setDeviceOrder(SortedDeviceIndex.ORDER_RSSI);
+        log.publishSnapshot();
+        assertEquals(Arrays.asList(b, c, a), log.getDeviceList());
+
+        // moved by the smoothed signal strength of new observations
+        BLEDevice a2 = null;
+        for (int i = 0; i < 10; i++) {
+            a2 = new BLEDevice("alpha", "18:04:ED:00:00:01", null);
+            a2.rssi = -40;
+            log.add(a2);
+        }
+        log.setDeviceFilter("18:04");
+        log.publishSnapshot();
+        assertEquals(Arrays.asList(a2, b), log.getDeviceList());
+
+        log.setDeviceFilter("BE");
+        log.publishSnapshot();
+        assertEquals(Collections.singletonList(b), log.getDeviceList());
+
+        log.setDeviceOrder(SortedDeviceIndex.ORDER_INSERTION);
+        log.setDeviceFilter("");
+        log.publishSnapshot();
+        assertEquals(Arrays.asList(a2, b, c), log.getDeviceList());
+    }
+}
@@ -0,0 +1,119 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of the synthetic advertisement load generator.
+ */
+public class SyntheticScanSourceTest {
+
+    private static class Collector implements ScanSource.Listener {
+        final List<BLEDevice> devices = Collections.synchronizedList(new ArrayList<BLEDevice>());
+        final CountDownLatch done;
+
+        Collector(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onScanResult(BLEDevice device) {
+            devices.add(device);
+            done.countDown();
+        }
+
+        @Override
+        public void onBatchScanResults(List<BLEDevice> devices) {
+            for (BLEDevice device : devices) {
+                onScanResult(device);
+            }
+        }
+
+        @Override
+        public void onScanFailed(String message) {
+            fail(message);
+        }
+
+        @Override
+        public void onScanFinished() {
+            fail("generator never finishes");
+        }
+    }
+
+    private static List<BLEDevice> generate(SyntheticScanSource source, int count) throws InterruptedException {
+        Collector collector = new Collector(count);
+        source.start(collector);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        source.stop();
+        return new ArrayList<>(collector.devices);
+    }
+
+    @Test
+    public void generate_payloadFormats() throws InterruptedException {
+        int[] kinds = {MiroCardSample.KIND_SENSOR_V2, MiroCardSample.KIND_MIROCARD, MiroCardSample.KIND_PERSONAL};
+        for (int payload = 0; payload < kinds.length; payload++) {
+            SyntheticScanSource source = SyntheticScanSource.withRate(10, 100000);
+            source.setPayloadMix(payload == 0 ? 1 : 0, payload == 1 ? 1 : 0, payload == 2 ? 1 : 0);
+            for (BLEDevice device : generate(source, 100)) {
+                MiroCardSample sample = device.getSample();
+                assertEquals(kinds[payload], sample.getKind());
+                assertTrue(new AdvertisementParser().reset(device.getRecord()).findManufacturerData());
+                if (kinds[payload] != MiroCardSample.KIND_PERSONAL) {
+                    assertTrue(sample.getTemperature() >= 15 && sample.getTemperature() <= 30);
+                    assertTrue(sample.getHumidity() >= 30 && sample.getHumidity() <= 60);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void generate_devicesRoundRobin() throws InterruptedException {
+        List<BLEDevice> devices = generate(SyntheticScanSource.withRate(5, 100000), 50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(devices.get(i % 5).getAddress(), devices.get(i).getAddress());
+            // payload changes every tenth advertisement of a device
+            BLEDevice previous = i >= 5 ? devices.get(i - 5) : null;
+            if (previous != null) {
+                assertEquals(i / 5 % 10 != 0, devices.get(i).hasSamePayload(previous));
+            }
+        }
+    }
+
+    @Test
+    public void generate_malformed() throws InterruptedException {
+        SyntheticScanSource source = SyntheticScanSource.withRate(10, 100000);
+        source.setMalformedRate(1);
+        for (BLEDevice device : generate(source, 100)) {
+            AdvertisementParser parser = new AdvertisementParser().reset(device.getRecord());
+            while (parser.next()) {
+                // walk all structures
+            }
+            assertTrue(parser.isMalformed() || device.getSample() == MiroCardSample.INVALID
+                    || device.getSample() == MiroCardSample.NONE);
+        }
+    }
+
+    @Test
+    public void generate_pacedAtRate() throws InterruptedException {
+        SyntheticScanSource source = SyntheticScanSource.withRate(10, 2000);
+        source.setBatchSize(10);
+        assertEquals(2000, source.getRate(), 0.1);
+        long start = System.nanoTime();
+        List<BLEDevice> devices = generate(source, 400);
+        long elapsed = System.nanoTime() - start;
+
+        // 400 advertisements at 2000/s take 200 ms
+        assertTrue(elapsed >= 190000000L);
+        assertTrue(elapsed < 2000000000L);
+        // stamped with the scheduled send time
+        long interval = devices.get(399).getTimestamp() - devices.get(0).getTimestamp();
+        assertEquals(399 * 500000L, interval, 1000);
+    }
+}
@@ -0,0 +1,194 @@
+package ch.miromico.miroreaderapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test of reading and replaying recorded logs.
+ */
+public class TracePlayerTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("trace", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static List<BLEDevice> devices(int count, long interval) {
+        List<BLEDevice> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] record = (i % 2 == 0 ? MiroCardDecoderTest.MIROCARD : MiroCardDecoderTest.SENSOR_V2).clone();
+            devices.add(new BLEDevice(i % 3 == 0 ? null : "Miro;Card", MacAddress.format(0x1804ED610000L + i % 5),
+                    1000000000L + i * interval, -40 - i % 50, record));
+        }
+        // device logged without raw record
+        devices.add(new BLEDevice("legacy", "18:04:ED:61:00:09", "0000180f-0000-1000-8000-00805f9b34fb"));
+        return devices;
+    }
+
+    private File write(List<BLEDevice> devices, LogEncoder encoder) throws IOException {
+        File file = new File(directory, "trace." + encoder.getFileExtension());
+        OutputStream out = new FileOutputStream(file);
+        encoder.writeHeader(out);
+        for (BLEDevice device : devices) {
+            encoder.writeRow(device, out);
+        }
+        out.close();
+        return file;
+    }
+
+    private static void assertSameRows(List<BLEDevice> expected, List<BLEDevice> actual) {
+        assertEquals(expected.size(), actual.size());
+        CsvRowEncoder expectedRow = new CsvRowEncoder();
+        CsvRowEncoder actualRow = new CsvRowEncoder();
+        for (int i = 0; i < expected.size(); i++) {
+            expectedRow.encode(expected.get(i));
+            actualRow.encode(actual.get(i));
+            assertEquals(new String(expectedRow.getBuffer(), 0, expectedRow.getLength()),
+                    new String(actualRow.getBuffer(), 0, actualRow.getLength()));
+        }
+    }
+
+    private static List<BLEDevice> readAll(File file) throws IOException {
+        List<BLEDevice> devices = new ArrayList<>();
+        TraceReader reader = TraceReader.open(file);
+        try {
+            BLEDevice device;
+            while ((device = reader.next()) != null) {
+                devices.add(device);
+            }
+        } finally {
+            reader.close();
+        }
+        return devices;
+    }
+
+    @Test
+    public void reader_csvAndBinary() throws IOException {
+        List<BLEDevice> devices = devices(100, 1000000L);
+        assertSameRows(devices, readAll(write(devices, new CsvRowEncoder())));
+        assertSameRows(devices, readAll(write(devices, new BinaryLogEncoder())));
+
+        // records are decoded again
+        BLEDevice device = readAll(write(devices, new CsvRowEncoder())).get(0);
+        assertEquals(MiroCardDecoder.decode(MiroCardDecoderTest.MIROCARD).getTemperature(),
+                device.getSample().getTemperature(), 0.001);
+    }
+
+    @Test
+    public void reader_skipsMalformedRows() {
+        assertNull(TraceReader.parseRow("time;address;RSSI;data;name"));
+        assertNull(TraceReader.parseRow("123;18:04:ED:61:00:01;-50"));
+        assertNull(TraceReader.parseRow("12x;18:04:ED:61:00:01;-50;0201;NA"));
+        assertNull(TraceReader.parseHex("02f"));
+        assertNull(TraceReader.parseHex("zz"));
+        assertEquals(3, TraceReader.parseHex("0201,ff").length);
+    }
+
+    private static class Collector implements ScanSource.Listener {
+        final List<BLEDevice> devices = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        int batches = 0;
+
+        @Override
+        public void onScanResult(BLEDevice device) {
+            devices.add(device);
+        }
+
+        @Override
+        public void onBatchScanResults(List<BLEDevice> devices) {
+            this.devices.addAll(devices);
+            batches++;
+        }
+
+        @Override
+        public void onScanFailed(String message) {
+            fail(message);
+        }
+
+        @Override
+        public void onScanFinished() {
+            finished.countDown();
+        }
+    }
+
+    @Test
+    public void replay_asFastAsPossible() throws Exception {
+        List<BLEDevice> devices = devices(1000, 1000000000L);
+        TracePlayer player = new TracePlayer(write(devices, new BinaryLogEncoder()), TracePlayer.SPEED_MAX);
+        Collector collector = new Collector();
+        long start = System.nanoTime();
+        player.start(collector);
+        assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+        player.stop();
+
+        assertSameRowsIgnoringTime(devices, collector.devices);
+        assertTrue(collector.batches > 1);
+        assertEquals(devices.size(), player.getDeliveredCount());
+        // replay times are in the current time base
+        assertTrue(collector.devices.get(0).getTimestamp() >= start);
+    }
+
+    @Test
+    public void replay_paced() throws Exception {
+        // 200 ms trace replayed at double speed
+        List<BLEDevice> devices = devices(21, 10000000L);
+        TracePlayer player = new TracePlayer(write(devices, new CsvRowEncoder()), 2);
+        Collector collector = new Collector();
+        long start = System.nanoTime();
+        player.start(collector);
+        assertTrue(collector.finished.await(10, TimeUnit.SECONDS));
+        player.stop();
+
+        assertEquals(devices.size(), collector.devices.size());
+        assertTrue(System.nanoTime() - start >= 90000000L);
+        BLEDevice first = collector.devices.get(0);
+        BLEDevice last = collector.devices.get(19);
+        assertTrue(last.getTimestamp() - first.getTimestamp() >= 90000000L);
+    }
+
+    @Test
+    public void stop_endsReplay() throws Exception {
+        List<BLEDevice> devices = devices(100, 1000000000L);
+        TracePlayer player = new TracePlayer(write(devices, new CsvRowEncoder()), 1);
+        Collector collector = new Collector();
+        player.start(collector);
+        Thread.sleep(50);
+        player.stop();
+
+        assertEquals(1, collector.devices.size());
+        assertEquals(1, collector.finished.getCount());
+    }
+
+    private static void assertSameRowsIgnoringTime(List<BLEDevice> expected, List<BLEDevice> actual) {
+        List<BLEDevice> retimed = new ArrayList<>();
+        for (int i = 0; i < actual.size(); i++) {
+            BLEDevice device = new BLEDevice(actual.get(i));
+            device.timestamp = expected.get(i).getTimestamp();
+            retimed.add(device);
+        }
+        assertSameRows(expected, retimed);
+    }
+}